@@ -0,0 +1,67 @@
+package ru.relex.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.relex.model.DrawResult;
+import ru.relex.model.Participant;
+import ru.relex.service.DrawService;
+import ru.relex.service.impl.DrawServiceImpl;
+import ru.relex.storage.TicketIndex;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Розыгрыш {@code winners} победителей по индексу из {@code tickets} билетов, у участника от 1 до 3 билетов.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class DrawBenchmark {
+    @Param({"1000000", "5000000"})
+    private int tickets;
+
+    @Param({"10", "1000"})
+    private int winners;
+
+    private DrawService drawService;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        TicketIndex index = new TicketIndex();
+        Random random = new Random(42);
+        Participant participant = null;
+        for (int i = 0, left = 0; i < tickets; i++, left--) {
+            if (left == 0) {
+                participant = new Participant(Integer.toString(i), 7900);
+                left = 1 + random.nextInt(3);
+            }
+            UUID ticket = new UUID(random.nextLong(), random.nextLong());
+            participant.addTicket(ticket, i + 1);
+            index.add(ticket, participant);
+        }
+        drawService = new DrawServiceImpl(index, new SimpleMeterRegistry());
+        System.out.println("Билетов в индексе: " + index.size() + ", пример: " + drawService.draw(3, "benchmark"));
+    }
+
+    @Benchmark
+    public DrawResult draw() {
+        return drawService.draw(winners, "seed-" + round++);
+    }
+}
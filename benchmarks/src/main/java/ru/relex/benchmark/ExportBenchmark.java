@@ -0,0 +1,65 @@
+package ru.relex.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.relex.model.ExportFormat;
+import ru.relex.model.ExportMode;
+import ru.relex.model.ExportResult;
+import ru.relex.service.ExportService;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полная выгрузка реестра (бывший exportToExcel) на растущем числе участников
+ * с заполненной анкетой и билетом. Размер больше 100 тыс. задаётся через {@code -p rows=...}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ExportBenchmark {
+    @Param({"10000", "100000"})
+    private int rows;
+
+    @Param({"XLSX", "CSV"})
+    private ExportFormat format;
+
+    private StorageFixture fixture;
+    private ExportService exportService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new StorageFixture();
+        fixture.fill(0, rows, true);
+        exportService = fixture.exportService();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ExportResult last = exportService.getLastExport();
+        if (last != null) {
+            long bytes = last.getFiles().stream().mapToLong(File::length).sum();
+            System.out.println("Выгрузка: " + last.getRows() + " строк, " + last.getFiles().size() + " файл(ов), " + bytes + " байт");
+        }
+        fixture.close();
+    }
+
+    @Benchmark
+    public ExportResult fullExport() throws Exception {
+        return exportService.export(ExportMode.FULL, format);
+    }
+}
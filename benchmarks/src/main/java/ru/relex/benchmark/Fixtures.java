@@ -0,0 +1,46 @@
+package ru.relex.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.core.io.ClassPathResource;
+import ru.relex.utils.ReceiptTextParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Фиксированные входные данные бенчмарков из {@code src/main/resources/fixtures}.
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    static byte[] bytes(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Нет фикстуры " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String text(String name) {
+        return new String(bytes(name), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Разбор по шаблонам чеков, которые поставляются с receipt-core.
+     */
+    static ReceiptTextParser textParser() {
+        try {
+            return new ReceiptTextParser(new ObjectMapper(), new ClassPathResource("receipt-templates.json"),
+                    new SimpleMeterRegistry());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
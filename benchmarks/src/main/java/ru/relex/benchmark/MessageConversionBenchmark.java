@@ -0,0 +1,105 @@
+package ru.relex.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.relex.messaging.CompactMessageConverter;
+import ru.relex.model.AnswerEnvelope;
+import ru.relex.model.UpdateEnvelope;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сериализация сообщений брокера: прежний Jackson2JsonMessageConverter с полным
+ * {@link Update} / {@link SendMessage} против {@link CompactMessageConverter} с конвертами.
+ * Размер сообщений печатается при подготовке.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageConversionBenchmark {
+    @Param({"update-document", "update-text"})
+    private String fixture;
+
+    private final Jackson2JsonMessageConverter jsonConverter = new Jackson2JsonMessageConverter("*");
+    private final CompactMessageConverter compactConverter = new CompactMessageConverter();
+
+    private Update update;
+    private SendMessage answer;
+    private Message jsonUpdateMessage;
+    private Message compactUpdateMessage;
+    private Message jsonAnswerMessage;
+    private Message compactAnswerMessage;
+
+    @Setup
+    public void setUp() throws Exception {
+        update = new ObjectMapper().readValue(Fixtures.bytes("json/" + fixture + ".json"), Update.class);
+        answer = new SendMessage(update.getMessage().getChatId().toString(),
+                "Чек принят. Пожалуйста, введите ваше ФИО:");
+
+        jsonUpdateMessage = jsonConverter.toMessage(update, new MessageProperties());
+        compactUpdateMessage = compactConverter.toMessage(UpdateEnvelope.of(update), new MessageProperties());
+        jsonAnswerMessage = jsonConverter.toMessage(answer, new MessageProperties());
+        compactAnswerMessage = compactConverter.toMessage(AnswerEnvelope.of(answer), new MessageProperties());
+        System.out.println("Байт на сообщение (" + fixture + "): Update " + jsonUpdateMessage.getBody().length
+                + " -> " + compactUpdateMessage.getBody().length + ", SendMessage " + jsonAnswerMessage.getBody().length
+                + " -> " + compactAnswerMessage.getBody().length);
+    }
+
+    @Benchmark
+    public Message serializeUpdateJson() {
+        return jsonConverter.toMessage(update, new MessageProperties());
+    }
+
+    @Benchmark
+    public Message serializeUpdateCompact() {
+        return compactConverter.toMessage(UpdateEnvelope.of(update), new MessageProperties());
+    }
+
+    @Benchmark
+    public Object deserializeUpdateJson() {
+        return jsonConverter.fromMessage(jsonUpdateMessage);
+    }
+
+    @Benchmark
+    public Object deserializeUpdateCompact() {
+        return compactConverter.fromMessage(compactUpdateMessage);
+    }
+
+    @Benchmark
+    public Message serializeAnswerJson() {
+        return jsonConverter.toMessage(answer, new MessageProperties());
+    }
+
+    @Benchmark
+    public Message serializeAnswerCompact() {
+        return compactConverter.toMessage(AnswerEnvelope.of(answer), new MessageProperties());
+    }
+
+    @Benchmark
+    public Object deserializeAnswerJson() {
+        return jsonConverter.fromMessage(jsonAnswerMessage);
+    }
+
+    @Benchmark
+    public Object deserializeAnswerCompact() {
+        return compactConverter.fromMessage(compactAnswerMessage);
+    }
+}
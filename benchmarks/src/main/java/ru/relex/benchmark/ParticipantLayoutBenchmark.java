@@ -0,0 +1,119 @@
+package ru.relex.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+import ru.relex.model.Participant;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Прежняя раскладка реестра (номер чека -> {@code HashMap} полей-строк, плюс множество номеров)
+ * против {@link Participant} с полями и билетами в массиве long, на 10 тыс. – 1 млн записей.
+ * Объём в куче считается JOL по графу объектов и печатается при подготовке; замеряется
+ * чтение полей записи по номеру чека.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djdk.attach.allowAttachSelf=true"})
+@State(Scope.Benchmark)
+public class ParticipantLayoutBenchmark {
+    private static final String[] STREETS = {"ул. Ленина", "ул. Мира", "пр. Победы", "ул. Садовая", "ул. Гагарина"};
+
+    @Param({"10000", "100000", "1000000"})
+    private int size;
+
+    @Param({"nested_map", "participant"})
+    private String layout;
+
+    private Map<String, Map<String, String>> userData;
+    private Map<String, Participant> participants;
+    private String[] checkNumbers;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        checkNumbers = new String[size];
+        Random random = new Random(42);
+        if ("nested_map".equals(layout)) {
+            userData = new HashMap<>();
+            Set<String> uniqueChecks = new HashSet<>();
+            for (int i = 0; i < size; i++) {
+                String checkNumber = checkNumbers[i] = StorageFixture.checkNumber(i);
+                Map<String, String> data = new HashMap<>();
+                data.put("paymentAmount", Double.toString(7900 + i % 20000));
+                data.put("fio", fio(i));
+                data.put("address", address(i));
+                data.put("phone", phone(i));
+                data.put("uid", new UUID(random.nextLong(), random.nextLong()).toString());
+                uniqueChecks.add(checkNumber);
+                userData.put(checkNumber, data);
+            }
+            report(GraphLayout.parseInstance(userData, uniqueChecks).totalSize());
+        } else {
+            participants = new ConcurrentHashMap<>();
+            for (int i = 0; i < size; i++) {
+                String checkNumber = checkNumbers[i] = StorageFixture.checkNumber(i);
+                Participant participant = new Participant(checkNumber, 7900 + i % 20000);
+                participant.setFio(fio(i));
+                participant.setAddress(address(i));
+                participant.setPhone(phone(i));
+                participant.addTicket(new UUID(random.nextLong(), random.nextLong()), i + 1);
+                participant.setLastSeq(i + 1);
+                participants.put(checkNumber, participant);
+            }
+            report(GraphLayout.parseInstance(participants).totalSize());
+        }
+    }
+
+    private void report(long bytes) {
+        System.out.println("Раскладка " + layout + ": " + size + " записей, " + bytes / (1024 * 1024) + " МБ, "
+                + bytes / size + " байт на запись");
+    }
+
+    @Benchmark
+    public int readRecord() {
+        next = (next + 7919) % size;
+        String checkNumber = checkNumbers[next];
+        if (userData != null) {
+            Map<String, String> data = userData.get(checkNumber);
+            return data.get("fio").length() + data.get("phone").length();
+        }
+        Participant participant = participants.get(checkNumber);
+        return participant.getFio().length() + participant.getPhone().length();
+    }
+
+    private static String fio(int i) {
+        return "Иванов Иван Иванович " + i;
+    }
+
+    /**
+     * Адреса повторяются по улицам и домам, но каждая запись хранит свою копию строки, как в боте.
+     */
+    private static String address(int i) {
+        return "г. Москва, " + STREETS[i % STREETS.length] + ", д. " + (i % 200 + 1) + ", кв. " + (i % 97 + 1);
+    }
+
+    private static String phone(int i) {
+        return String.format("+7900%07d", i);
+    }
+}
@@ -0,0 +1,49 @@
+package ru.relex.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.relex.model.ReceiptExtractionResult;
+import ru.relex.service.impl.ReceiptExtractorImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор PDF-чека с текстовым слоем: загрузка документа и извлечение полей без OCR.
+ * Фикстура содержит и сумму, и номер чека, поэтому пул движков OCR не нужен.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReceiptExtractionBenchmark {
+    private final ReceiptExtractorImpl extractor = new ReceiptExtractorImpl(Fixtures.textParser(), null, new SimpleMeterRegistry());
+    private byte[] pdf;
+
+    @Setup
+    public void setUp() throws Exception {
+        pdf = Fixtures.bytes("pdf/kaspi-receipt.pdf");
+        ReceiptExtractionResult result = extractTextLayer();
+        if (!result.isComplete()) {
+            throw new IllegalStateException("Фикстура не разбирается по текстовому слою: " + result);
+        }
+    }
+
+    @Benchmark
+    public ReceiptExtractionResult extractTextLayer() throws Exception {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            return extractor.extract(document);
+        }
+    }
+}
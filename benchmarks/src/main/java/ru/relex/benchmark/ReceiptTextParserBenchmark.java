@@ -0,0 +1,45 @@
+package ru.relex.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.relex.template.TemplateMatch;
+import ru.relex.utils.ReceiptTextParser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск суммы и номера чека в тексте страницы по шаблонам: текстовый слой Kaspi,
+ * зашумлённый вывод OCR и страница без нужных полей (проверяются все подходящие шаблоны).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReceiptTextParserBenchmark {
+    @Param({"kaspi-text-layer", "ocr-noisy", "no-fields"})
+    private String fixture;
+
+    private final ReceiptTextParser parser = Fixtures.textParser();
+    private String pageText;
+
+    @Setup
+    public void setUp() {
+        pageText = Fixtures.text("ocr/" + fixture + ".txt");
+    }
+
+    @Benchmark
+    public TemplateMatch parse() {
+        return parser.parse(pageText);
+    }
+}
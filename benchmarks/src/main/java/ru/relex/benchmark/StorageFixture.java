@@ -0,0 +1,110 @@
+package ru.relex.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import ru.relex.service.ExportService;
+import ru.relex.service.impl.ExportServiceImpl;
+import ru.relex.storage.ParticipantJournal;
+import ru.relex.storage.TicketIndex;
+import ru.relex.utils.UserDataStorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Реестр участников с журналом во временном каталоге, собранный тем же Spring,
+ * что и в диспетчере. Заполняется детерминированно: участник {@code i} всегда
+ * получает один и тот же номер чека, сумму, анкету и билет.
+ */
+final class StorageFixture implements AutoCloseable {
+    /** Параллельные регистрации складываются журналом в одну запись на диск. */
+    private static final int FILL_THREADS = 256;
+
+    private final Path dir;
+    private final AnnotationConfigApplicationContext context;
+
+    StorageFixture() throws IOException {
+        dir = Files.createTempDirectory("relex-bench");
+        Files.createDirectories(dir.resolve("export"));
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of(
+                "storage.dir", dir.resolve("storage").toString(),
+                "storage.snapshot-interval-minutes", "1440",
+                "export.path", dir.resolve("export").resolve("userdata.xlsx").toString())));
+        context.register(SimpleMeterRegistry.class, ParticipantJournal.class, TicketIndex.class, UserDataStorage.class, ExportServiceImpl.class);
+        context.refresh();
+    }
+
+    UserDataStorage storage() {
+        return context.getBean(UserDataStorage.class);
+    }
+
+    ExportService exportService() {
+        return context.getBean(ExportService.class);
+    }
+
+    static String checkNumber(int i) {
+        return String.format("%012d", i);
+    }
+
+    /**
+     * Регистрирует участников {@code [from, to)}; с {@code withDetails} заполняет анкету и выдаёт билет.
+     */
+    void fill(int from, int to, boolean withDetails) throws Exception {
+        UserDataStorage storage = storage();
+        ExecutorService executor = Executors.newFixedThreadPool(FILL_THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            int chunk = Math.max(1, (to - from + FILL_THREADS - 1) / FILL_THREADS);
+            for (int start = from; start < to; start += chunk) {
+                int first = start;
+                int last = Math.min(to, start + chunk);
+                futures.add(executor.submit(() -> {
+                    for (int i = first; i < last; i++) {
+                        register(storage, i, withDetails);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Снимок, чтобы при следующем открытии не переигрывать весь журнал.
+        context.getBean(ParticipantJournal.class).snapshot(storage.getParticipants());
+    }
+
+    private static void register(UserDataStorage storage, int i, boolean withDetails) {
+        String checkNumber = checkNumber(i);
+        storage.registerCheck(checkNumber, 7900.0 * (1 + i % 5));
+        if (withDetails) {
+            storage.setFio(checkNumber, "Участник Номер " + i);
+            storage.setAddress(checkNumber, "г. Алматы, ул. Абая, д. " + (i % 300) + ", кв. " + (i % 120));
+            storage.setPhone(checkNumber, "+7 701 " + String.format("%07d", i % 10_000_000));
+            storage.addUUID(checkNumber, new UUID(i, ~i));
+        }
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ru.relex.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.relex.controller.ChatSequencer;
+import ru.relex.controller.UpdateDispatcher;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузочный тест режимов {@code bot.updates.execution}: {@code chats} чатов присылают по
+ * {@code messagesPerChat} сообщений, каждое блокируется на {@code ioMillis} мс (getFile, скачивание,
+ * отправка). Замеряется время, за которое обработана вся пачка; порядок внутри чата проверяется.
+ * Режим {@code virtual} требует JDK 21+.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpdateDispatchBenchmark {
+    @Param({"platform", "virtual"})
+    private String execution;
+
+    @Param({"100", "2000"})
+    private int chats;
+
+    @Param({"3"})
+    private int messagesPerChat;
+
+    @Param({"20"})
+    private int ioMillis;
+
+    @Param({"32"})
+    private int threads;
+
+    private ExecutorService executor;
+    private ChatSequencer sequencer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("virtual".equals(execution)) {
+            executor = UpdateDispatcher.newVirtualThreadExecutor();
+            if (executor == null) {
+                throw new IllegalStateException("Виртуальные потоки недоступны в JDK " + Runtime.version());
+            }
+        } else {
+            executor = Executors.newFixedThreadPool(threads);
+        }
+        sequencer = new ChatSequencer(executor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int dispatch() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(chats * messagesPerChat);
+        AtomicInteger[] lastSeen = new AtomicInteger[chats];
+        AtomicInteger outOfOrder = new AtomicInteger();
+        for (int chat = 0; chat < chats; chat++) {
+            lastSeen[chat] = new AtomicInteger(-1);
+        }
+        for (int message = 0; message < messagesPerChat; message++) {
+            for (int chat = 0; chat < chats; chat++) {
+                int chatIndex = chat;
+                int sequence = message;
+                sequencer.submit(chat, () -> {
+                    sleep(ioMillis);
+                    if (lastSeen[chatIndex].getAndSet(sequence) != sequence - 1) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    done.countDown();
+                });
+            }
+        }
+        done.await();
+        if (outOfOrder.get() > 0) {
+            throw new IllegalStateException("Нарушен порядок сообщений в чатах: " + outOfOrder.get());
+        }
+        return outOfOrder.get();
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
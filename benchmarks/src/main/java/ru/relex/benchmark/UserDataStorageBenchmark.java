@@ -0,0 +1,106 @@
+package ru.relex.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.relex.model.Participant;
+import ru.relex.utils.UserDataStorage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Операции реестра участников на 10 тыс. – 1 млн записей: поиск чека, регистрация
+ * с записью в журнал, выборка изменений для инкрементальной выгрузки и полный обход.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class UserDataStorageBenchmark {
+    /** Размер выборки изменений: примерно столько чеков приходит между двумя выгрузками. */
+    private static final int DELTA_SIZE = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    private int size;
+
+    private StorageFixture fixture;
+    private UserDataStorage storage;
+    /** Номера чеков заготовлены заранее, чтобы не замерять форматирование строк. */
+    private String[] checkNumbers;
+    private final AtomicInteger nextCheck = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new StorageFixture();
+        fixture.fill(0, size, false);
+        storage = fixture.storage();
+        nextCheck.set(size);
+        checkNumbers = new String[size];
+        for (int i = 0; i < size; i++) {
+            checkNumbers[i] = StorageFixture.checkNumber(i);
+        }
+        System.out.println("Реестр: " + storage.size() + " записей, ~" + storage.estimateBytesPerRecord() + " байт на запись");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next(int bound) {
+            next = (next + 7919) % bound;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public boolean isCheckProcessed(Cursor cursor) {
+        return storage.isCheckProcessed(checkNumbers[cursor.next(size)]);
+    }
+
+    /**
+     * Регистрация нового чека ждёт записи в журнал на диске, как и в боте.
+     */
+    @Benchmark
+    public boolean registerCheck() {
+        int i = nextCheck.getAndIncrement();
+        return storage.registerCheck(StorageFixture.checkNumber(i), 7900);
+    }
+
+    @Benchmark
+    public int changedParticipants() {
+        long upTo = storage.currentSeq();
+        int count = 0;
+        for (Participant ignored : storage.getChangedParticipants(Math.max(0, upTo - DELTA_SIZE), upTo)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public double scanAll() {
+        double total = 0;
+        for (Participant participant : storage.getParticipants()) {
+            total += participant.getPaymentAmount();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,40 @@
+package ru.relex.messaging;
+
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Фабрика слушателей, получающих сообщения пачками ({@code List<T>} в параметре
+ * {@code @RabbitListener(containerFactory = BATCH_LISTENER_FACTORY)}).
+ * <p>
+ * Пачка собирается до {@code messaging.listener.batch-size} сообщений или
+ * {@code messaging.listener.batch-receive-timeout-ms} и подтверждается брокеру целиком
+ * после обработки. Остальные настройки берутся из spring.rabbitmq.listener.simple,
+ * кроме prefetch: он не меньше размера пачки, иначе пачка не наберётся.
+ */
+@Configuration
+public class BatchListenerConfiguration {
+    public static final String BATCH_LISTENER_FACTORY = "batchListenerContainerFactory";
+
+    @Value("${messaging.listener.batch-size:50}")
+    private int batchSize;
+    @Value("${messaging.listener.batch-receive-timeout-ms:50}")
+    private long batchReceiveTimeoutMs;
+
+    @Bean(BATCH_LISTENER_FACTORY)
+    public SimpleRabbitListenerContainerFactory batchListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(batchReceiveTimeoutMs);
+        factory.setPrefetchCount(Math.max(batchSize, 1));
+        return factory;
+    }
+}
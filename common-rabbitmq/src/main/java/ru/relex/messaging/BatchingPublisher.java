@@ -0,0 +1,304 @@
+package ru.relex.messaging;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Публикация в RabbitMQ пачками с асинхронными подтверждениями брокера.
+ * <p>
+ * {@link #publish} только кладёт сообщение в буфер. Отдельный поток набирает пачку
+ * до {@code messaging.publish.batch-size} сообщений или ждёт не дольше
+ * {@code messaging.publish.linger-ms} и отправляет её одним каналом. Каждое сообщение
+ * несёт {@link CorrelationData}; nack, возврат неразмещённого сообщения или отсутствие
+ * подтверждения дольше {@code messaging.publish.confirm-timeout-ms} приводят к повторной
+ * отправке с задержкой, до {@code messaging.publish.max-attempts} попыток. Получается
+ * доставка «хотя бы один раз», поэтому потребители должны переносить дубликаты.
+ * <p>
+ * Число неподтверждённых сообщений ограничено {@code messaging.publish.max-unconfirmed}.
+ * Подтверждения включаются {@code spring.rabbitmq.publisher-confirm-type=correlated};
+ * без них пачки отправляются без отслеживания доставки.
+ */
+@Component
+@Log4j
+public class BatchingPublisher {
+    @Value("${messaging.publish.buffer-capacity:10000}")
+    private int bufferCapacity;
+    @Value("${messaging.publish.batch-size:100}")
+    private int batchSize;
+    @Value("${messaging.publish.linger-ms:5}")
+    private long lingerMs;
+    @Value("${messaging.publish.max-unconfirmed:1000}")
+    private int maxUnconfirmed;
+    @Value("${messaging.publish.confirm-timeout-ms:10000}")
+    private long confirmTimeoutMs;
+    @Value("${messaging.publish.max-attempts:5}")
+    private int maxAttempts;
+    @Value("${messaging.publish.retry-base-delay-ms:200}")
+    private long retryBaseDelayMs;
+
+    private final RabbitTemplate rabbitTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private LinkedBlockingQueue<OutgoingMessage> buffer;
+    private Semaphore unconfirmed;
+    private boolean confirmsEnabled;
+    private final ConcurrentHashMap<String, OutgoingMessage> awaitingConfirm = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private ScheduledExecutorService retryExecutor;
+    private Thread flusher;
+    private volatile boolean running = true;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong confirmed = new AtomicLong();
+    private final AtomicLong nacked = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public BatchingPublisher(RabbitTemplate rabbitTemplate, MeterRegistry meterRegistry) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        buffer = new LinkedBlockingQueue<>(bufferCapacity);
+        unconfirmed = new Semaphore(maxUnconfirmed);
+        confirmsEnabled = rabbitTemplate.getConnectionFactory().isPublisherConfirms();
+        if (!confirmsEnabled) {
+            log.warn("Подтверждения публикации выключены (spring.rabbitmq.publisher-confirm-type): доставка не отслеживается");
+        }
+
+        retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rabbit-publish-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        retryExecutor.scheduleWithFixedDelay(this::expireUnconfirmed, 1, 1, TimeUnit.SECONDS);
+
+        flusher = new Thread(this::flushLoop, "rabbit-publisher");
+        flusher.setDaemon(true);
+        flusher.start();
+        bindMetrics(meterRegistry);
+    }
+
+    /**
+     * @return false, если буфер публикации переполнен и сообщение не принято
+     */
+    public boolean publish(String queue, Object payload) {
+        if (!running) return false;
+        return buffer.offer(new OutgoingMessage(queue, payload));
+    }
+
+    private void flushLoop() {
+        List<OutgoingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                OutgoingMessage first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                // Пачка набирается не дольше linger-ms: одиночное сообщение почти не ждёт.
+                long lingerDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (batch.size() < batchSize) {
+                    long remaining = lingerDeadline - System.nanoTime();
+                    OutgoingMessage next = remaining > 0 ? buffer.poll(remaining, TimeUnit.NANOSECONDS) : buffer.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Ошибка отправки пачки сообщений", e);
+                batch.forEach(message -> scheduleRetry(message, e.getMessage()));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<OutgoingMessage> batch) throws InterruptedException {
+        if (confirmsEnabled) {
+            // Ограничение неподтверждённых сообщений тормозит отправку, а буфер — вызывающих.
+            unconfirmed.acquire(batch.size());
+        }
+        List<OutgoingMessage> sent = new ArrayList<>(batch.size());
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (OutgoingMessage message : batch) {
+                    CorrelationData correlation = confirmsEnabled ? track(message) : null;
+                    operations.convertAndSend("", message.queue, message.payload, correlation);
+                    sent.add(message);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // Неотправленные сообщения не ждут подтверждения; отправленные дождутся его или таймаута.
+            for (OutgoingMessage message : batch.subList(sent.size(), batch.size())) {
+                if (confirmsEnabled) {
+                    if (message.correlationId != null) {
+                        awaitingConfirm.remove(message.correlationId, message);
+                    }
+                    unconfirmed.release();
+                }
+                scheduleRetry(message, e.getMessage());
+            }
+            published.addAndGet(sent.size());
+            log.error("Ошибка отправки пачки сообщений", e);
+            return;
+        }
+        published.addAndGet(sent.size());
+        batches.incrementAndGet();
+    }
+
+    private CorrelationData track(OutgoingMessage message) {
+        message.correlationId = Long.toString(sequence.incrementAndGet());
+        message.sentNanos = System.nanoTime();
+        awaitingConfirm.put(message.correlationId, message);
+
+        CorrelationData correlation = new CorrelationData(message.correlationId);
+        correlation.getFuture().addCallback(
+                confirm -> {
+                    if (!confirm.isAck()) {
+                        onFailure(message, "nack: " + confirm.getReason());
+                    } else if (correlation.getReturned() != null) {
+                        onFailure(message, "сообщение не размещено: " + correlation.getReturned().getReplyText());
+                    } else if (awaitingConfirm.remove(message.correlationId, message)) {
+                        unconfirmed.release();
+                        confirmed.incrementAndGet();
+                    }
+                },
+                error -> onFailure(message, error.getMessage()));
+        return correlation;
+    }
+
+    private void onFailure(OutgoingMessage message, String reason) {
+        // Таймаут и поздний nack могут прийти оба: повторяет только тот, кто снял сообщение с ожидания.
+        if (awaitingConfirm.remove(message.correlationId, message)) {
+            unconfirmed.release();
+            nacked.incrementAndGet();
+            scheduleRetry(message, reason);
+        }
+    }
+
+    private void expireUnconfirmed() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+        awaitingConfirm.values().forEach(message -> {
+            if (message.sentNanos - deadline < 0) {
+                onFailure(message, "нет подтверждения за " + confirmTimeoutMs + " мс");
+            }
+        });
+    }
+
+    private void scheduleRetry(OutgoingMessage message, String reason) {
+        if (++message.attempts >= maxAttempts) {
+            failed.incrementAndGet();
+            log.error("Сообщение в " + message.queue + " не доставлено за " + message.attempts + " попыток: " + reason);
+            return;
+        }
+        retried.incrementAndGet();
+        long delay = retryBaseDelayMs * (1L << Math.min(message.attempts - 1, 6));
+        delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        log.warn("Повторная отправка в " + message.queue + " через " + delay + " мс: " + reason);
+        retryExecutor.schedule(() -> requeue(message), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void requeue(OutgoingMessage message) {
+        if (!buffer.offer(message)) {
+            failed.incrementAndGet();
+            log.error("Буфер публикации переполнен, сообщение в " + message.queue + " потеряно");
+        }
+    }
+
+    private void bindMetrics(MeterRegistry registry) {
+        Gauge.builder("messaging.publish.buffered", this, BatchingPublisher::getBuffered).register(registry);
+        Gauge.builder("messaging.publish.awaiting.confirm", this, BatchingPublisher::getAwaitingConfirm).register(registry);
+        FunctionCounter.builder("messaging.publish.published", this, BatchingPublisher::getPublished).register(registry);
+        FunctionCounter.builder("messaging.publish.confirmed", this, BatchingPublisher::getConfirmed).register(registry);
+        FunctionCounter.builder("messaging.publish.nacked", this, BatchingPublisher::getNacked).register(registry);
+        FunctionCounter.builder("messaging.publish.retried", this, BatchingPublisher::getRetried).register(registry);
+        FunctionCounter.builder("messaging.publish.failed", this, BatchingPublisher::getFailed).register(registry);
+        FunctionCounter.builder("messaging.publish.batches", this, BatchingPublisher::getBatches).register(registry);
+    }
+
+    public int getBuffered() {
+        return buffer.size();
+    }
+
+    public int getAwaitingConfirm() {
+        return awaitingConfirm.size();
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getConfirmed() {
+        return confirmed.get();
+    }
+
+    public long getNacked() {
+        return nacked.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // Буфер дописывается в брокер, затем ждём подтверждения уже отправленного.
+        running = false;
+        flusher.join(TimeUnit.SECONDS.toMillis(10));
+        long deadline = System.currentTimeMillis() + confirmTimeoutMs;
+        while (!awaitingConfirm.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        retryExecutor.shutdownNow();
+        int lost = buffer.size() + awaitingConfirm.size();
+        if (lost > 0) {
+            log.warn("При остановке не подтверждено сообщений: " + lost);
+        }
+    }
+
+    private static final class OutgoingMessage {
+        private final String queue;
+        private final Object payload;
+        private int attempts;
+        private volatile String correlationId;
+        private volatile long sentNanos;
+
+        private OutgoingMessage(String queue, Object payload) {
+            this.queue = queue;
+            this.payload = payload;
+        }
+    }
+}
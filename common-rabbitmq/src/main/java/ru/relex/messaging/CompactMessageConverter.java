@@ -0,0 +1,68 @@
+package ru.relex.messaging;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.DefaultJackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import ru.relex.model.AnswerEnvelope;
+import ru.relex.model.ReceiptJob;
+import ru.relex.model.ReceiptJobResult;
+import ru.relex.model.UpdateEnvelope;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Общий конвертер сообщений dispatcher и nodee.
+ * <ul>
+ *     <li>один заранее настроенный ObjectMapper на всё приложение;</li>
+ *     <li>пустые поля не пишутся;</li>
+ *     <li>в заголовке типа короткий идентификатор вместо полного имени класса;</li>
+ *     <li>версия схемы передаётся в заголовке {@value #SCHEMA_VERSION_HEADER}.</li>
+ * </ul>
+ * Сообщение более новой схемы, чем знает получатель, не разбирается
+ * (MessageConversionException отбрасывает его без повторной доставки).
+ */
+public class CompactMessageConverter extends Jackson2JsonMessageConverter {
+    public static final String SCHEMA_VERSION_HEADER = "x-schema";
+    public static final int SCHEMA_VERSION = 1;
+
+    public CompactMessageConverter() {
+        super(createObjectMapper(), "ru.relex.model");
+        DefaultJackson2JavaTypeMapper typeMapper = new DefaultJackson2JavaTypeMapper();
+        typeMapper.setTrustedPackages("ru.relex.model");
+        typeMapper.setIdClassMapping(Map.of(
+                "upd", UpdateEnvelope.class,
+                "ans", AnswerEnvelope.class,
+                "job", ReceiptJob.class,
+                "res", ReceiptJobResult.class));
+        setJavaTypeMapper(typeMapper);
+    }
+
+    public static ObjectMapper createObjectMapper() {
+        return new ObjectMapper()
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties, Type genericType) {
+        messageProperties.setHeader(SCHEMA_VERSION_HEADER, SCHEMA_VERSION);
+        return super.createMessage(object, messageProperties, genericType);
+    }
+
+    @Override
+    public Object fromMessage(Message message, Object conversionHint) {
+        Object version = message.getMessageProperties().getHeader(SCHEMA_VERSION_HEADER);
+        if (version instanceof Number && ((Number) version).intValue() > SCHEMA_VERSION) {
+            throw new MessageConversionException("Неподдерживаемая версия схемы сообщения: " + version);
+        }
+        return super.fromMessage(message, conversionHint);
+    }
+}
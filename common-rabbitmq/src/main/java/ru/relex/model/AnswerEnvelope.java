@@ -0,0 +1,32 @@
+package ru.relex.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+/**
+ * Ответ пользователю от воркера: адресат и текст вместо сериализованного {@link SendMessage}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnswerEnvelope {
+    @JsonProperty("c")
+    private String chatId;
+    @JsonProperty("t")
+    private String text;
+    @JsonProperty("r")
+    private Integer replyToMessageId;
+
+    public static AnswerEnvelope of(SendMessage sendMessage) {
+        return new AnswerEnvelope(sendMessage.getChatId(), sendMessage.getText(), sendMessage.getReplyToMessageId());
+    }
+
+    public SendMessage toSendMessage() {
+        SendMessage sendMessage = new SendMessage(chatId, text);
+        sendMessage.setReplyToMessageId(replyToMessageId);
+        return sendMessage;
+    }
+}
@@ -0,0 +1,23 @@
+package ru.relex.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Задание на разбор чека для воркера nodee. Содержит только то, что нужно
+ * для скачивания файла, а не весь Update. Ответ публикуется в очередь {@code replyTo}
+ * отправившего диспетчера как {@link ReceiptJobResult} с тем же correlationId.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReceiptJob {
+    private String correlationId;
+    /** Очередь ответов диспетчера, отправившего задание. */
+    private String replyTo;
+    private Long chatId;
+    private String fileId;
+    private String fileUniqueId;
+    private Long fileSize;
+}
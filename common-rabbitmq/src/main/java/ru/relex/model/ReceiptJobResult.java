@@ -0,0 +1,22 @@
+package ru.relex.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Результат разбора чека от воркера. Если разбор не удался, заполнено только {@code error}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReceiptJobResult {
+    private String correlationId;
+    private Long chatId;
+    private Double paymentAmount;
+    private String checkNumber;
+    private int pageIndex;
+    private float confidence;
+    private String tier;
+    private String error;
+}
@@ -0,0 +1,92 @@
+package ru.relex.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.telegram.telegrambots.meta.api.objects.Document;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Обновление в том виде, в каком оно уходит через брокер: только поля, которые
+ * читают потребители, с короткими именами. Полный граф {@link Update} с десятками
+ * пустых полей по сети больше не передаётся.
+ */
+@Data
+@NoArgsConstructor
+public class UpdateEnvelope {
+    @JsonProperty("u")
+    private Integer updateId;
+    @JsonProperty("c")
+    private Long chatId;
+    @JsonProperty("m")
+    private Integer messageId;
+    @JsonProperty("f")
+    private Long fromId;
+    @JsonProperty("t")
+    private String text;
+    @JsonProperty("fi")
+    private String fileId;
+    @JsonProperty("fu")
+    private String fileUniqueId;
+    @JsonProperty("fn")
+    private String fileName;
+    @JsonProperty("mt")
+    private String mimeType;
+    @JsonProperty("fs")
+    private Long fileSize;
+
+    /**
+     * Для фото берётся самый крупный размер: остальные потребителям не нужны.
+     *
+     * @return конверт или null, если в обновлении нет сообщения
+     */
+    public static UpdateEnvelope of(Update update) {
+        Message message = update.getMessage();
+        if (message == null) {
+            return null;
+        }
+        UpdateEnvelope envelope = new UpdateEnvelope();
+        envelope.updateId = update.getUpdateId();
+        envelope.chatId = message.getChatId();
+        envelope.messageId = message.getMessageId();
+        envelope.fromId = message.getFrom() != null ? message.getFrom().getId() : null;
+        envelope.text = message.getText();
+
+        Document document = message.getDocument();
+        if (document != null) {
+            envelope.fileId = document.getFileId();
+            envelope.fileUniqueId = document.getFileUniqueId();
+            envelope.fileName = document.getFileName();
+            envelope.mimeType = document.getMimeType();
+            envelope.fileSize = document.getFileSize();
+        } else if (message.hasPhoto()) {
+            PhotoSize photo = largest(message.getPhoto());
+            envelope.fileId = photo.getFileId();
+            envelope.fileUniqueId = photo.getFileUniqueId();
+            envelope.fileSize = photo.getFileSize() != null ? photo.getFileSize().longValue() : null;
+        }
+        return envelope;
+    }
+
+    private static PhotoSize largest(List<PhotoSize> photos) {
+        return photos.stream()
+                .max(Comparator.comparingLong(photo -> photo.getFileSize() != null ? photo.getFileSize() : 0L))
+                .orElseThrow();
+    }
+
+    @JsonIgnore
+    public boolean hasText() {
+        return text != null;
+    }
+
+    @JsonIgnore
+    public boolean hasFile() {
+        return fileId != null;
+    }
+}
@@ -1,10 +1,12 @@
 package ru.relex.configuration;
 
+import org.springframework.amqp.core.AnonymousQueue;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.support.converter.MessageConverter;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.relex.messaging.CompactMessageConverter;
 
 import static ru.relex.model.RabbitQueue.*;
 
@@ -12,7 +14,7 @@ import static ru.relex.model.RabbitQueue.*;
 public class RabbitConfiguration {
     @Bean
     public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+        return new CompactMessageConverter();
     }
     @Bean
     public Queue textMessageQueue(){
@@ -30,4 +32,13 @@ public class RabbitConfiguration {
     public Queue answerMessageQueue(){
         return new Queue(ANSWER_MESSAGE);
     }
+    /**
+     * Своя очередь ответов воркеров у каждого диспетчера: безымянная, эксклюзивная и удаляемая
+     * вместе с соединением, поэтому ответ приходит тому, кто отправил задание.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "receipt.processing.mode", havingValue = "remote")
+    public AnonymousQueue receiptReplyQueue(){
+        return new AnonymousQueue();
+    }
 }
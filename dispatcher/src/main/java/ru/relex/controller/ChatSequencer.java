@@ -0,0 +1,92 @@
+package ru.relex.controller;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Выполняет задачи на общем исполнителе так, что задачи одного чата идут строго по очереди,
+ * а разные чаты обрабатываются параллельно. У чата, которому есть что делать, в исполнителе
+ * ровно одна задача, которая разбирает его очередь; пустая очередь удаляется из карты.
+ * <p>
+ * Очередь чата не остаётся в карте без разбирающей её задачи: если исполнитель отказался
+ * принять задачу, очередь удаляется, а если задача чата бросила {@link Error}, разбор
+ * остатка очереди переносится в новую задачу исполнителя.
+ */
+public class ChatSequencer {
+    private final Executor executor;
+    /** Очередь чата меняется только внутри compute по его ключу. */
+    private final ConcurrentHashMap<Long, Queue<Runnable>> queues = new ConcurrentHashMap<>();
+
+    public ChatSequencer(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void submit(long chatId, Runnable task) {
+        boolean[] started = new boolean[1];
+        queues.compute(chatId, (id, queue) -> {
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                started[0] = true;
+            }
+            queue.add(task);
+            return queue;
+        });
+        if (started[0]) {
+            schedule(chatId);
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException если исполнитель остановлен; очередь чата к этому моменту удалена
+     */
+    private void schedule(long chatId) {
+        try {
+            executor.execute(() -> drain(chatId));
+        } catch (RejectedExecutionException e) {
+            queues.remove(chatId);
+            throw e;
+        }
+    }
+
+    private void drain(long chatId) {
+        boolean drained = false;
+        try {
+            Runnable task;
+            while ((task = next(chatId)) != null) {
+                task.run();
+            }
+            drained = true;
+        } finally {
+            if (!drained) {
+                try {
+                    schedule(chatId);
+                } catch (RejectedExecutionException e) {
+                    // Исполнитель остановлен: очередь удалена, исходная ошибка задачи летит дальше.
+                }
+            }
+        }
+    }
+
+    /**
+     * @return следующая задача чата или {@code null}, если очередь пуста (тогда она удалена,
+     * и следующая задача чата запустит разбор заново)
+     */
+    private Runnable next(long chatId) {
+        Runnable[] next = new Runnable[1];
+        queues.computeIfPresent(chatId, (id, queue) -> {
+            next[0] = queue.poll();
+            return next[0] != null ? queue : null;
+        });
+        return next[0];
+    }
+
+    /**
+     * @return число чатов, у которых есть выполняемые или ожидающие задачи
+     */
+    public int getActiveChats() {
+        return queues.size();
+    }
+}
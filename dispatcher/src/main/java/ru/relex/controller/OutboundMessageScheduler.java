@@ -0,0 +1,420 @@
+package ru.relex.controller;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Очередь исходящих сообщений с учётом лимитов Telegram: общий token bucket
+ * ({@code telegram.send.global-rate} сообщений в секунду) и bucket на каждый чат
+ * ({@code telegram.send.chat-rate}, запас {@code telegram.send.chat-burst}).
+ * Отправка асинхронная, через {@code executeAsync}; у каждого чата не больше
+ * одного сообщения в полёте, поэтому порядок сообщений в чате сохраняется.
+ * <p>
+ * Ответы пользователям ({@link Priority#INTERACTIVE}) уходят раньше массовых
+ * рассылок ({@link Priority#BULK}). На 429 чат приостанавливается на retry_after,
+ * а сообщение возвращается в начало его очереди; сетевые ошибки и ответы 5xx повторяются
+ * до {@code telegram.send.max-attempts} раз. Сообщения не теряются.
+ */
+@Component
+@Log4j
+public class OutboundMessageScheduler {
+    public enum Priority {
+        /** Ответ на действие пользователя. */
+        INTERACTIVE,
+        /** Массовые и служебные сообщения, например список UUID после выгрузки. */
+        BULK
+    }
+
+    /**
+     * Вызов executeAsync конкретного метода API.
+     */
+    public interface Send {
+        CompletableFuture<Message> send(AbsSender sender) throws TelegramApiException;
+    }
+
+    private static final long IDLE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Value("${telegram.send.global-rate:30}")
+    private double globalRate;
+    @Value("${telegram.send.chat-rate:1}")
+    private double chatRate;
+    @Value("${telegram.send.chat-burst:3}")
+    private int chatBurst;
+    @Value("${telegram.send.max-attempts:3}")
+    private int maxAttempts;
+
+    private AbsSender sender;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, ChatQueue> chats = new HashMap<>();
+    private final ArrayDeque<ChatQueue> interactiveReady = new ArrayDeque<>();
+    private final ArrayDeque<ChatQueue> bulkReady = new ArrayDeque<>();
+    private TokenBucket globalBucket;
+    private int queuedInteractive;
+    private int queuedBulk;
+    private volatile boolean running;
+    private Thread dispatcherThread;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final LongAdder totalApiNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final Timer latencyTimer;
+    private final Timer apiTimer;
+
+    public OutboundMessageScheduler(MeterRegistry meterRegistry) {
+        latencyTimer = Timer.builder("telegram.send.latency")
+                .description("От постановки в очередь до ответа Telegram").register(meterRegistry);
+        apiTimer = Timer.builder("telegram.send.api")
+                .description("Один вызов Bot API, включая неудачные попытки").register(meterRegistry);
+        Gauge.builder("telegram.send.queued", this, OutboundMessageScheduler::getQueuedInteractive)
+                .tag("priority", "interactive").register(meterRegistry);
+        Gauge.builder("telegram.send.queued", this, OutboundMessageScheduler::getQueuedBulk)
+                .tag("priority", "bulk").register(meterRegistry);
+        FunctionCounter.builder("telegram.send.sent", this, OutboundMessageScheduler::getSent).register(meterRegistry);
+        FunctionCounter.builder("telegram.send.failed", this, OutboundMessageScheduler::getFailed).register(meterRegistry);
+        FunctionCounter.builder("telegram.send.rate.limited", this, OutboundMessageScheduler::getRateLimited)
+                .register(meterRegistry);
+        FunctionCounter.builder("telegram.send.retried", this, OutboundMessageScheduler::getRetried).register(meterRegistry);
+    }
+
+    public void registerSender(AbsSender sender) {
+        this.sender = sender;
+    }
+
+    @PostConstruct
+    public void init() {
+        globalBucket = new TokenBucket(globalRate, Math.max(1, (int) globalRate));
+        running = true;
+        dispatcherThread = new Thread(this::dispatchLoop, "telegram-outbound");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    /**
+     * Ставит сообщение в очередь чата. Future завершается ответом Telegram
+     * или ошибкой, если сообщение так и не удалось отправить.
+     */
+    public CompletableFuture<Message> submit(String chatId, Priority priority, Send send) {
+        Outbound outbound = new Outbound(priority, send);
+        lock.lock();
+        try {
+            ChatQueue chat = chats.computeIfAbsent(chatId, ChatQueue::new);
+            enqueue(chat, outbound, false);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        return outbound.future;
+    }
+
+    private void enqueue(ChatQueue chat, Outbound outbound, boolean first) {
+        boolean interactive = outbound.priority == Priority.INTERACTIVE;
+        Deque<Outbound> queue = interactive ? chat.interactive : chat.bulk;
+        boolean wasEmpty = queue.isEmpty();
+        if (first) queue.addFirst(outbound);
+        else queue.addLast(outbound);
+        if (interactive) queuedInteractive++;
+        else queuedBulk++;
+        if (wasEmpty) (interactive ? interactiveReady : bulkReady).addLast(chat);
+    }
+
+    private void dispatchLoop() {
+        long nextSweep = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (running) {
+            ChatQueue chat = null;
+            Outbound outbound = null;
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                long waitNanos = globalBucket.nanosUntilToken(now);
+                if (waitNanos == 0) {
+                    waitNanos = IDLE_WAIT_NANOS;
+                    // Сначала ответы пользователям, потом рассылки; внутри приоритета чаты по кругу.
+                    for (ArrayDeque<ChatQueue> ready : List.of(interactiveReady, bulkReady)) {
+                        for (int i = ready.size(); i > 0 && outbound == null; i--) {
+                            ChatQueue candidate = ready.pollFirst();
+                            Deque<Outbound> queue = ready == interactiveReady ? candidate.interactive : candidate.bulk;
+                            long chatWait = candidate.nanosUntilSendable(now);
+                            if (chatWait > 0) {
+                                waitNanos = Math.min(waitNanos, chatWait);
+                                ready.addLast(candidate);
+                                continue;
+                            }
+                            chat = candidate;
+                            outbound = queue.pollFirst();
+                            if (!queue.isEmpty()) ready.addLast(candidate);
+                        }
+                        if (outbound != null) break;
+                    }
+                }
+
+                if (outbound == null) {
+                    if (now - nextSweep >= 0) {
+                        removeIdleChats(now);
+                        nextSweep = now + TimeUnit.MINUTES.toNanos(1);
+                    }
+                    changed.awaitNanos(waitNanos);
+                    continue;
+                }
+                if (outbound.priority == Priority.INTERACTIVE) queuedInteractive--;
+                else queuedBulk--;
+                globalBucket.take(now);
+                chat.bucket.take(now);
+                chat.inFlight = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            dispatch(chat, outbound);
+        }
+    }
+
+    private void dispatch(ChatQueue chat, Outbound outbound) {
+        outbound.attempts++;
+        long start = System.nanoTime();
+        CompletableFuture<Message> response;
+        try {
+            response = outbound.send.send(sender);
+        } catch (TelegramApiException | RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((message, error) -> complete(chat, outbound, message, error, start));
+    }
+
+    private void complete(ChatQueue chat, Outbound outbound, Message message, Throwable error, long startNanos) {
+        long now = System.nanoTime();
+        totalApiNanos.add(now - startNanos);
+        apiTimer.record(now - startNanos, TimeUnit.NANOSECONDS);
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        boolean done = true;
+        lock.lock();
+        try {
+            chat.inFlight = false;
+            if (cause instanceof TelegramApiRequestException && isRateLimited((TelegramApiRequestException) cause)) {
+                rateLimited.increment();
+                Integer retryAfter = retryAfter((TelegramApiRequestException) cause);
+                chat.blockedUntil = now + TimeUnit.SECONDS.toNanos(retryAfter != null ? retryAfter : 1);
+                // Лимит не считается попыткой: сообщение ждёт, а не теряется.
+                outbound.attempts--;
+                enqueue(chat, outbound, true);
+                done = false;
+            } else if (cause != null && isTransient(cause) && outbound.attempts < maxAttempts) {
+                // Сетевая ошибка или сбой на стороне Telegram: запрос не обработан, повторяем.
+                retried.increment();
+                enqueue(chat, outbound, true);
+                done = false;
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (!done) return;
+
+        long latency = now - outbound.enqueuedNanos;
+        totalLatencyNanos.add(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        latencyTimer.record(latency, TimeUnit.NANOSECONDS);
+        if (cause == null) {
+            sent.increment();
+            outbound.future.complete(message);
+        } else {
+            failed.increment();
+            log.error("Не удалось отправить сообщение в чат " + chat.chatId, cause);
+            outbound.future.completeExceptionally(cause);
+        }
+    }
+
+    private static boolean isRateLimited(TelegramApiRequestException e) {
+        return (e.getErrorCode() != null && e.getErrorCode() == 429) || retryAfter(e) != null;
+    }
+
+    /**
+     * 429 может прийти и без parameters: тогда ждём секунду.
+     */
+    private static Integer retryAfter(TelegramApiRequestException e) {
+        return e.getParameters() != null ? e.getParameters().getRetryAfter() : null;
+    }
+
+    /**
+     * Повторяются ошибки без ответа API и ответы 5xx. Остальные ответы API (400, 403)
+     * при повторе не изменятся.
+     */
+    private static boolean isTransient(Throwable cause) {
+        if (!(cause instanceof TelegramApiRequestException)) return true;
+        Integer errorCode = ((TelegramApiRequestException) cause).getErrorCode();
+        return errorCode != null && errorCode >= 500;
+    }
+
+    private void removeIdleChats(long now) {
+        Iterator<ChatQueue> iterator = chats.values().iterator();
+        while (iterator.hasNext()) {
+            ChatQueue chat = iterator.next();
+            if (chat.isIdle(now)) iterator.remove();
+        }
+    }
+
+    public int getQueuedInteractive() {
+        lock.lock();
+        try {
+            return queuedInteractive;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueuedBulk() {
+        lock.lock();
+        try {
+            return queuedBulk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    /**
+     * Среднее время от постановки в очередь до ответа Telegram.
+     */
+    public double getAverageLatencyMillis() {
+        long count = sent.sum() + failed.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    /**
+     * Среднее время одного вызова API (включая неудачные попытки).
+     */
+    public double getAverageApiMillis() {
+        long count = sent.sum() + failed.sum() + retried.sum() + rateLimited.sum();
+        return count == 0 ? 0 : totalApiNanos.sum() / 1e6 / count;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (dispatcherThread != null) dispatcherThread.interrupt();
+    }
+
+    private final class ChatQueue {
+        private final String chatId;
+        private final Deque<Outbound> interactive = new ArrayDeque<>();
+        private final Deque<Outbound> bulk = new ArrayDeque<>();
+        private final TokenBucket bucket = new TokenBucket(chatRate, chatBurst);
+        private boolean inFlight;
+        private long blockedUntil;
+
+        private ChatQueue(String chatId) {
+            this.chatId = chatId;
+        }
+
+        private long nanosUntilSendable(long now) {
+            if (inFlight) return IDLE_WAIT_NANOS;
+            if (blockedUntil - now > 0) return blockedUntil - now;
+            return bucket.nanosUntilToken(now);
+        }
+
+        private boolean isIdle(long now) {
+            return interactive.isEmpty() && bulk.isEmpty() && !inFlight
+                    && blockedUntil - now <= 0 && bucket.isFull(now);
+        }
+    }
+
+    private static final class Outbound {
+        private final Priority priority;
+        private final Send send;
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+        private final long enqueuedNanos = System.nanoTime();
+        private int attempts;
+
+        private Outbound(Priority priority, Send send) {
+            this.priority = priority;
+            this.send = send;
+        }
+    }
+
+    /**
+     * Не потокобезопасен: используется только под {@link #lock}.
+     */
+    private static final class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        private TokenBucket(double ratePerSecond, int capacity) {
+            this.ratePerNano = ratePerSecond / 1e9;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+        }
+
+        private long nanosUntilToken(long now) {
+            refill(now);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / ratePerNano);
+        }
+
+        private void take(long now) {
+            refill(now);
+            tokens -= 1;
+        }
+
+        private boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+    }
+}
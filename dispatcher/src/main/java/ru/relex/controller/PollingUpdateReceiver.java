@@ -0,0 +1,44 @@
+package ru.relex.controller;
+
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Приём обновлений через long polling (bot.mode=polling, по умолчанию).
+ * Регистрирует бота telegrambots-spring-boot-starter; при регистрации
+ * ранее установленный webhook снимается.
+ */
+@Component
+@ConditionalOnProperty(name = "bot.mode", havingValue = "polling", matchIfMissing = true)
+@Log4j
+public class PollingUpdateReceiver extends TelegramLongPollingBot {
+    @Value("${bot.name}")
+    private String botName;
+    @Value("${bot.token}")
+    private String botToken;
+
+    private final UpdateDispatcher updateDispatcher;
+
+    public PollingUpdateReceiver(UpdateDispatcher updateDispatcher) {
+        this.updateDispatcher = updateDispatcher;
+    }
+
+    @Override
+    public String getBotUsername() {
+        return botName;
+    }
+
+    @Override
+    public String getBotToken() {
+        return botToken;
+    }
+
+    @Override
+    public void onUpdateReceived(Update update) {
+        updateDispatcher.dispatch(update);
+    }
+}
@@ -7,54 +7,58 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
-import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
-import org.telegram.telegrambots.meta.api.objects.Document;
-import org.telegram.telegrambots.meta.api.methods.GetFile;
-import org.telegram.telegrambots.meta.api.objects.File;
 
 import javax.annotation.PostConstruct;
-import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Отправляющая сторона бота. Обновления принимает {@link PollingUpdateReceiver}
+ * (bot.mode=polling, по умолчанию) или {@link WebhookController} (bot.mode=webhook).
+ */
 @Component
 @Log4j
-public class TelegramBot extends TelegramLongPollingBot{
+public class TelegramBot extends DefaultAbsSender {
     @Value("${bot.name}")
     private String botName;
     @Value("${bot.token}")
     private String botToken;
     private UpdateController updateController;
+    private final OutboundMessageScheduler outboundMessageScheduler;
 
     @Autowired
-    public TelegramBot(UpdateController updateController) { // то о чем я и говорил про связку классов
+    public TelegramBot(UpdateController updateController, OutboundMessageScheduler outboundMessageScheduler,
+                       @Value("${telegram.send.threads:8}") int sendThreads) { // то о чем я и говорил про связку классов
         // тут мы создаем такой же метод, и связываем обьекты классов друг с другом
+        super(botOptions(sendThreads));
         this.updateController = updateController;
+        this.outboundMessageScheduler = outboundMessageScheduler;
     }
 
-    public InputStream downloadFileAsStream(Document document) {
-        try {
-            GetFile getFile = new GetFile();
-            getFile.setFileId(document.getFileId());
-            File file = execute(getFile);
-            return downloadFileAsStream(file); // встроенный метод Telegram API
-        } catch (TelegramApiException e) {
-            log.error("Ошибка при скачивании файла", e);
-            return null;
-        }
+    /**
+     * По умолчанию executeAsync выполняется одним потоком, и отправка упирается
+     * в задержку API задолго до лимита Telegram.
+     */
+    private static DefaultBotOptions botOptions(int sendThreads) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setMaxThreads(sendThreads);
+        return options;
     }
 
     @PostConstruct
     public void init(){
         updateController.registerBot(this);
+        outboundMessageScheduler.registerSender(this);
     }
 
-    @Override
     public String getBotUsername() {
         return botName;
     }
@@ -64,32 +68,34 @@ public class TelegramBot extends TelegramLongPollingBot{
         return botToken;
     }
 
-    @Override
-    public void onUpdateReceived(Update update) {
-        updateController.processUpdate(update);
+    public void sendAnswerMessage(SendMessage message) {
+        sendMessage(message, OutboundMessageScheduler.Priority.INTERACTIVE);
+    }
 
+    /**
+     * Массовое сообщение: уступает очередь ответам пользователям.
+     */
+    public void sendBulkMessage(SendMessage message) {
+        sendMessage(message, OutboundMessageScheduler.Priority.BULK);
     }
 
-    public void sendAnswerMessage(SendMessage message) {
+    private void sendMessage(SendMessage message, OutboundMessageScheduler.Priority priority) {
         if (message != null) {
-            try {
-                execute(message);
-            } catch (TelegramApiException e) {
-                log.error(e);
-            }
+            outboundMessageScheduler.submit(message.getChatId(), priority, sender -> sender.executeAsync(message));
         }
     }
 
-    public void sendAnswerDocument(SendDocument document) {
-        try {
-            execute(document);
-        } catch (TelegramApiException e) {
-            log.error("Ошибка при отправке документа", e);
-        }
+    /**
+     * @return future с отправленным сообщением (в нём file_id документа); завершается ошибкой, если отправка не удалась
+     */
+    public CompletableFuture<Message> sendAnswerDocument(SendDocument document) {
+        return outboundMessageScheduler.submit(document.getChatId(), OutboundMessageScheduler.Priority.INTERACTIVE,
+                sender -> sender.executeAsync(document));
     }
 
 
     public boolean isAdmin(Long chatId) {
-        return chatId.equals(625054506); // ID администратора
+        // Литерал long: Long.equals(Integer) всегда false.
+        return chatId != null && chatId == 625054506L; // ID администратора
     }
 }
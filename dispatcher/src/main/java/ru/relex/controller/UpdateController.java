@@ -1,46 +1,77 @@
 package ru.relex.controller;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.log4j.Log4j;
-import net.sourceforge.tess4j.Tesseract;
-import net.sourceforge.tess4j.TesseractException;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.telegram.telegrambots.meta.api.methods.GetFile;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.InputFile;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import ru.relex.download.ReceiptRejectedException;
+import ru.relex.model.DrawResult;
+import ru.relex.model.ExportFormat;
+import ru.relex.model.ExportMode;
+import ru.relex.model.ExportResult;
+import ru.relex.model.Participant;
+import ru.relex.model.ReceiptExtractionResult;
+import ru.relex.service.DrawService;
+import ru.relex.service.ExportService;
+import ru.relex.service.ReceiptDownloader;
+import ru.relex.service.ReceiptPipeline;
 import ru.relex.service.UpdateProducer;
+import ru.relex.storage.TicketIndex;
+import ru.relex.utils.ChatSession;
+import ru.relex.utils.ChatSessionStore;
 import ru.relex.utils.MessageUtils;
+import ru.relex.utils.UploadedFileCache;
 import ru.relex.utils.UserDataStorage;
 
-import java.io.InputStream;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 @Component
 @Log4j
 public class UpdateController {
+    /** Предел длины текста одного сообщения Telegram. */
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+
     private TelegramBot telegramBot;
     private final MessageUtils messageUtils;
     private final UpdateProducer updateProducer;
     private final UserDataStorage userDataStorage;
-
-    private String currentUserCheckNumber;
-    private int currentInputStep = 0;
-
-    public UpdateController(MessageUtils messageUtils, UpdateProducer updateProducer, UserDataStorage userDataStorage) {
+    private final ReceiptPipeline receiptPipeline;
+    private final ChatSessionStore chatSessionStore;
+    private final ExportService exportService;
+    private final UploadedFileCache uploadedFileCache;
+    private final ReceiptDownloader receiptDownloader;
+    private final DrawService drawService;
+    private final TicketIndex ticketIndex;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${export.path:C:\\Users\\Admin\\Documents\\userdata.xlsx}")
+    private String exportPath;
+
+    public UpdateController(MessageUtils messageUtils, UpdateProducer updateProducer, UserDataStorage userDataStorage,
+                            ReceiptPipeline receiptPipeline, ChatSessionStore chatSessionStore, ExportService exportService,
+                            UploadedFileCache uploadedFileCache, ReceiptDownloader receiptDownloader,
+                            DrawService drawService, TicketIndex ticketIndex, MeterRegistry meterRegistry) {
         this.messageUtils = messageUtils;
         this.updateProducer = updateProducer;
         this.userDataStorage = userDataStorage;
+        this.receiptPipeline = receiptPipeline;
+        this.chatSessionStore = chatSessionStore;
+        this.exportService = exportService;
+        this.uploadedFileCache = uploadedFileCache;
+        this.receiptDownloader = receiptDownloader;
+        this.drawService = drawService;
+        this.ticketIndex = ticketIndex;
+        this.meterRegistry = meterRegistry;
     }
 
     public void registerBot(TelegramBot telegramBot) {
@@ -69,15 +100,12 @@ public class UpdateController {
 
         if (text.equals("/start")) {
             setView(messageUtils.generateSendMessageWithText(update, "Добро пожаловать! Пожалуйста, отправьте чек в формате PDF."));
-        } else if (text.equals("/export")) {
-            userDataStorage.assignRandomUUIDs();
-            File exportedFile = userDataStorage.exportToExcel();
-            if (exportedFile != null && exportedFile.exists()) {
-                sendExcelFile(update);
-                sendUIDsToChat(update);
-            } else {
-                setView(messageUtils.generateSendMessageWithText(update, "Ошибка: Не удалось экспортировать данные в Excel."));
-            }
+        } else if (text.equals("/export") || text.startsWith("/export ")) {
+            handleExport(update, text);
+        } else if (text.equals("/draw") || text.startsWith("/draw ")) {
+            handleDraw(update, text);
+        } else if (text.equals("/ticket") || text.startsWith("/ticket ")) {
+            handleTicket(update, text);
         } else if (text.equals("/get_excel")) {
             sendExcelFile(update);
         } else {
@@ -85,175 +113,308 @@ public class UpdateController {
         }
     }
 
+    /**
+     * Выгрузка, розыгрыш и поиск билета отдают ФИО, адреса и телефоны участников,
+     * поэтому доступны только администратору.
+     *
+     * @return {@code false}, если команду прислал не администратор; ему уже отвечено
+     */
+    private boolean requireAdmin(Update update) {
+        if (telegramBot.isAdmin(update.getMessage().getChatId())) return true;
+        setView(messageUtils.generateSendMessageWithText(update, "Команда доступна только администратору."));
+        return false;
+    }
+
+    /**
+     * /export [full|delta] [xlsx|csv|tsv]: только для администратора, по умолчанию полная
+     * выгрузка в XLSX. delta выгружает только изменения после предыдущей выгрузки.
+     */
+    private void handleExport(Update update, String text) {
+        if (!requireAdmin(update)) return;
+        ExportMode mode = ExportMode.FULL;
+        ExportFormat format = ExportFormat.XLSX;
+        String[] args = text.trim().split("\\s+");
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i].toLowerCase();
+            if (arg.equals("delta")) {
+                mode = ExportMode.DELTA;
+            } else if (arg.equals("full")) {
+                mode = ExportMode.FULL;
+            } else if (arg.equals("csv")) {
+                format = ExportFormat.CSV;
+            } else if (arg.equals("tsv")) {
+                format = ExportFormat.TSV;
+            } else if (arg.equals("xlsx")) {
+                format = ExportFormat.XLSX;
+            } else {
+                setView(messageUtils.generateSendMessageWithText(update, "Использование: /export [full|delta] [xlsx|csv|tsv]"));
+                return;
+            }
+        }
+
+        userDataStorage.assignRandomUUIDs();
+        ExportResult result;
+        try {
+            result = exportService.export(mode, format);
+        } catch (IOException e) {
+            log.error("Ошибка выгрузки", e);
+            setView(messageUtils.generateSendMessageWithText(update, "Ошибка: Не удалось экспортировать данные в Excel."));
+            return;
+        }
+        uploadedFileCache.invalidate();
+
+        if (result.isEmpty()) {
+            setView(messageUtils.generateSendMessageWithText(update, "Изменений с последней выгрузки нет."));
+            return;
+        }
+        sendExportFiles(update, result.getFiles());
+        if (mode == ExportMode.FULL) {
+            sendUIDsToChat(update);
+        }
+    }
+
+    /**
+     * /draw N [зерно]: только для администратора. Без зерна оно создаётся случайно и печатается
+     * в ответе, чтобы розыгрыш можно было повторить и проверить.
+     */
+    private void handleDraw(Update update, String text) {
+        if (!requireAdmin(update)) return;
+        String[] args = text.trim().split("\\s+", 3);
+        int winners;
+        try {
+            winners = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        } catch (NumberFormatException e) {
+            winners = 0;
+        }
+        if (winners <= 0) {
+            setView(messageUtils.generateSendMessageWithText(update, "Использование: /draw N [зерно]"));
+            return;
+        }
+
+        DrawResult result = drawService.draw(winners, args.length > 2 ? args[2] : null);
+        if (result.getTicketCount() == 0) {
+            setView(messageUtils.generateSendMessageWithText(update, "Билетов пока нет: розыгрывать нечего."));
+            return;
+        }
+        StringBuilder message = new StringBuilder("Розыгрыш среди ").append(result.getTicketCount()).append(" билетов\n")
+                .append("Зерно: ").append(result.getSeed()).append("\n")
+                .append("Отпечаток билетов: ").append(result.getIndexDigest()).append("\n");
+        if (result.getWinners().size() < winners) {
+            message.append("Участников меньше, чем мест: победителей ").append(result.getWinners().size()).append("\n");
+        }
+        int place = 1;
+        for (DrawResult.Winner winner : result.getWinners()) {
+            String line = place++ + ". " + winner.getTicket() + " — чек " + winner.getParticipant().getCheckNumber()
+                    + ", " + winner.getParticipant().getFio() + ", " + winner.getParticipant().getPhone() + "\n";
+            if (message.length() + line.length() > MAX_MESSAGE_LENGTH) {
+                setView(messageUtils.generateSendMessageWithText(update, message.toString()));
+                message.setLength(0);
+            }
+            message.append(line);
+        }
+        setView(messageUtils.generateSendMessageWithText(update, message.toString()));
+    }
+
+    /**
+     * /ticket UUID: владелец билета, только для администратора.
+     */
+    private void handleTicket(Update update, String text) {
+        if (!requireAdmin(update)) return;
+        String[] args = text.trim().split("\\s+");
+        UUID ticket;
+        try {
+            ticket = args.length == 2 ? UUID.fromString(args[1]) : null;
+        } catch (IllegalArgumentException e) {
+            ticket = null;
+        }
+        if (ticket == null) {
+            setView(messageUtils.generateSendMessageWithText(update, "Использование: /ticket UUID"));
+            return;
+        }
+        Participant owner = ticketIndex.findOwner(ticket);
+        setView(messageUtils.generateSendMessageWithText(update, owner == null
+                ? "Билет " + ticket + " не найден."
+                : "Билет " + ticket + ": чек " + owner.getCheckNumber() + ", " + owner.getFio() + ", " + owner.getPhone()));
+    }
+
     private void collectUserInfo(Update update, String text) {
-        if (currentUserCheckNumber == null) {
+        boolean hasSession = chatSessionStore.updateIfPresent(update.getMessage().getChatId(),
+                session -> collectUserInfo(update, text, session));
+        if (!hasSession) {
             setView(messageUtils.generateSendMessageWithText(update, "Ошибка: Сначала отправьте чек в формате PDF."));
-            return;
         }
+    }
+
+    private void collectUserInfo(Update update, String text, ChatSession session) {
+        String checkNumber = session.getCheckNumber();
 
-        switch (currentInputStep) {
+        switch (session.getInputStep()) {
             case 0:
-                userDataStorage.userData.putIfAbsent(currentUserCheckNumber, new HashMap<>());
-                userDataStorage.userData.get(currentUserCheckNumber).put("fio", text);
+                userDataStorage.setFio(checkNumber, text);
                 setView(messageUtils.generateSendMessageWithText(update, "Теперь введите ваш адрес:"));
-                currentInputStep++;
+                session.nextStep();
                 break;
             case 1:
-                userDataStorage.userData.get(currentUserCheckNumber).put("address", text);
+                userDataStorage.setAddress(checkNumber, text);
                 setView(messageUtils.generateSendMessageWithText(update, "Теперь введите ваш номер телефона:"));
-                currentInputStep++;
+                session.nextStep();
                 break;
             case 2:
-                userDataStorage.userData.get(currentUserCheckNumber).put("phone", text);
-                int uuidCount = userDataStorage.getUUIDCount(currentUserCheckNumber);
+                int uuidCount = userDataStorage.getUUIDCount(checkNumber);
+                List<UUID> uids = new ArrayList<>(uuidCount);
+                for (int i = 0; i < uuidCount; i++) {
+                    uids.add(UUID.randomUUID());
+                }
+                // Телефон и билеты одной записью: /export не должен застать анкету заполненной без билетов.
+                userDataStorage.completeProfile(checkNumber, text, uids);
 
                 StringBuilder uuidMessage = new StringBuilder("Спасибо! Ваши данные сохранены. Ваши UUID:\n");
-                for (int i = 0; i < uuidCount; i++) {
-                    String uid = UUID.randomUUID().toString();
-                    userDataStorage.addUUID(currentUserCheckNumber, uid);
+                for (UUID uid : uids) {
                     uuidMessage.append(uid).append("\n");
                 }
                 setView(messageUtils.generateSendMessageWithText(update, uuidMessage.toString()));
 
-                currentUserCheckNumber = null;
-                currentInputStep = 0;
+                session.finish();
                 break;
         }
     }
 
     private void handleDocumentMessage(Update update) {
         try {
-            File pdfFile = downloadPdfFromTelegram(update);
-            double paymentAmount = extractPaymentAmountFromDocument(pdfFile);
-            String checkNumber = extractCheckNumberFromDocument(pdfFile);
-
-            if (userDataStorage.isCheckProcessed(checkNumber)) {
-                setView(messageUtils.generateSendMessageWithText(update, "Ошибка: Чек с номером " + checkNumber + " уже был обработан."));
-                return;
-            }
+            receiptDownloader.check(update.getMessage().getDocument());
+        } catch (ReceiptRejectedException e) {
+            countReceipt("rejected");
+            setView(messageUtils.generateSendMessageWithText(update, e.getMessage()));
+            return;
+        }
 
-            if (paymentAmount >= 7900) {
-                currentUserCheckNumber = checkNumber;
-                userDataStorage.userData.putIfAbsent(currentUserCheckNumber, new HashMap<>());
-                userDataStorage.saveCheckNumber(currentUserCheckNumber);
+        // Подтверждение ставится в очередь отправки до того, как чек уйдёт на обработку: быстрый
+        // результат не обгонит его. Ответ из кэша приходит сразу, без подтверждения.
+        boolean accepted = receiptPipeline.submit(update,
+                () -> setView(messageUtils.generateSendMessageWithText(update, "Чек получен и обрабатывается, подождите немного...")),
+                receipt -> onReceiptExtracted(update, receipt),
+                e -> onReceiptFailed(update, e));
 
-                setView(messageUtils.generateSendMessageWithText(update, "Чек принят. Пожалуйста, введите ваше ФИО:"));
-                currentInputStep = 0;
-            } else {
-                setView(messageUtils.generateSendMessageWithText(update, "Ошибка: Сумма на чеке должна быть больше или равна 7900."));
-            }
-
-        } catch (Exception e) {
-            log.error("Ошибка при обработке документа", e);
-            setView(messageUtils.generateSendMessageWithText(update, "Ошибка при обработке документа. Попробуйте снова."));
+        if (accepted) {
+            countReceipt("accepted");
+        } else {
+            countReceipt("busy");
+            setView(messageUtils.generateSendMessageWithText(update, "Сейчас обрабатывается слишком много чеков. Пожалуйста, отправьте чек чуть позже."));
         }
     }
 
-    private double extractPaymentAmountFromDocument(File pdfFile) throws IOException, TesseractException {
-        Tesseract tesseract = new Tesseract();
-        tesseract.setDatapath("C:\\Program Files\\Tesseract-OCR\\tessdata");
-        tesseract.setLanguage("rus+eng");
-
-        try (PDDocument document = PDDocument.load(pdfFile)) {
-            PDFRenderer pdfRenderer = new PDFRenderer(document);
-            for (int page = 0; page < document.getNumberOfPages(); page++) {
-                log.info("Сканирование страницы: " + (page + 1));
-                BufferedImage image = pdfRenderer.renderImageWithDPI(page, 300);
-                String pageText = tesseract.doOCR(image);
-                log.info("Распознанный текст страницы: \n" + pageText);
-
-                String[] lines = pageText.split("\n");
-                boolean ignoreNextLine = false;
-
-                for (String line : lines) {
-                    log.info("Обрабатываемая строка: " + line);
-
-                    if (ignoreNextLine) {
-                        ignoreNextLine = false;
-                        String amount = line.replaceAll("[^0-9,]", "").trim();
-                        if (!amount.isEmpty()) {
-                            log.info("Принятая сумма после игнорированной строки: " + amount);
-                            return Double.parseDouble(amount.replace(",", "."));
-                        }
-                    }
+    private void onReceiptExtracted(Update update, ReceiptExtractionResult receipt) {
+        log.info("Результат разбора чека: " + receipt);
+        double paymentAmount = receipt.hasPaymentAmount() ? receipt.getPaymentAmount() : 0;
+        String checkNumber = receipt.hasCheckNumber() ? receipt.getCheckNumber() : UUID.randomUUID().toString();
 
-                    if (line.contains("ИП Sulu Home(6. 18-20)")) {
-                        log.info("Обнаружена строка 'ИП Sulu Home(6. 18-20)', игнорируем её и принимаем следующую строку.");
-                        ignoreNextLine = true;
-                        continue;
-                    }
+        if (userDataStorage.isCheckProcessed(checkNumber)) {
+            countReceipt("duplicate");
+            setView(messageUtils.generateSendMessageWithText(update, "Ошибка: Чек с номером " + checkNumber + " уже был обработан."));
+            return;
+        }
 
-                    if (line.matches(".*(\\d{1,3}(?:\\s\\d{3})*(?:,\\d{2})?).*")) {
-                        String amount = line.replaceAll("[^0-9,]", "").trim();
-                        log.info("Найденная сумма: " + amount);
-                        return Double.parseDouble(amount.replace(",", "."));
-                    }
-                }
+        if (paymentAmount >= 7900) {
+            if (!userDataStorage.registerCheck(checkNumber, paymentAmount)) {
+                countReceipt("duplicate");
+                setView(messageUtils.generateSendMessageWithText(update, "Ошибка: Чек с номером " + checkNumber + " уже был обработан."));
+                return;
             }
+
+            chatSessionStore.update(update.getMessage().getChatId(), session -> session.start(checkNumber));
+            countReceipt("registered");
+            setView(messageUtils.generateSendMessageWithText(update, "Чек принят. Пожалуйста, введите ваше ФИО:"));
+        } else {
+            countReceipt("below_minimum");
+            setView(messageUtils.generateSendMessageWithText(update, "Ошибка: Сумма на чеке должна быть больше или равна 7900."));
         }
-        log.warn("Не удалось найти сумму на чеке.");
-        return 0;
     }
 
+    private void onReceiptFailed(Update update, Exception e) {
+        log.error("Ошибка при обработке документа", e);
+        countReceipt("failed");
+        setView(messageUtils.generateSendMessageWithText(update, "Ошибка при обработке документа. Попробуйте снова."));
+    }
+
+    /**
+     * Исход чека для пользователя: принят в обработку, отклонён, зарегистрирован и т.д.
+     */
+    private void countReceipt(String outcome) {
+        meterRegistry.counter("receipts", "outcome", outcome).increment();
+    }
 
+    /**
+     * Список уходит массовыми сообщениями (не вперёд ответов пользователям),
+     * разбитым по лимиту Telegram на длину текста.
+     */
     private void sendUIDsToChat(Update update) {
         StringBuilder uidList = new StringBuilder("Сгенерированные UUID для пользователей:\n");
-        for (var entry : userDataStorage.userData.entrySet()) {
-            String uids = entry.getValue().get("uid");
-            if (uids != null && !uids.isEmpty()) {
-                uidList.append(entry.getKey()).append(": ").append(uids).append("\n");
+        for (Participant participant : userDataStorage.getParticipants()) {
+            if (participant.getTicketCount() > 0) {
+                String line = participant.getCheckNumber() + ": " + UserDataStorage.joinTickets(participant) + "\n";
+                if (uidList.length() + line.length() > MAX_MESSAGE_LENGTH) {
+                    telegramBot.sendBulkMessage(messageUtils.generateSendMessageWithText(update, uidList.toString()));
+                    uidList.setLength(0);
+                }
+                uidList.append(line);
             }
         }
-        setView(messageUtils.generateSendMessageWithText(update, uidList.toString()));
+        telegramBot.sendBulkMessage(messageUtils.generateSendMessageWithText(update, uidList.toString()));
     }
 
-    private String extractCheckNumberFromDocument(File pdfFile) throws IOException, TesseractException {
-        Tesseract tesseract = new Tesseract();
-        tesseract.setDatapath("C:\\Program Files\\Tesseract-OCR\\tessdata");
-        tesseract.setLanguage("rus+eng");
-
-        try (PDDocument document = PDDocument.load(pdfFile)) {
-            PDFRenderer pdfRenderer = new PDFRenderer(document);
-            for (int page = 0; page < document.getNumberOfPages(); page++) {
-                BufferedImage image = pdfRenderer.renderImageWithDPI(page, 300);
-                String pageText = tesseract.doOCR(image);
-
-                for (String line : pageText.split("\n")) {
-                    if (line.contains("№ чека")) {
-                        String checkNumber = line.replaceAll("[^0-9]", "").trim();
-                        log.info("Извлечён номер чека: " + checkNumber);
-                        return checkNumber;
-                    }
-                }
-            }
+    /**
+     * /get_excel: файлы последней выгрузки, только для администратора.
+     */
+    private void sendExcelFile(Update update) {
+        if (!requireAdmin(update)) return;
+        ExportResult lastExport = exportService.getLastExport();
+        List<File> files = lastExport != null && !lastExport.isEmpty()
+                ? lastExport.getFiles()
+                : Collections.singletonList(Paths.get(exportPath).toAbsolutePath().toFile());
+        if (files.stream().allMatch(File::exists)) {
+            sendExportFiles(update, files);
+        } else {
+            setView(messageUtils.generateSendMessageWithText(update, "Файл не найден. Сначала экспортируйте данные с помощью команды /export."));
         }
-        return UUID.randomUUID().toString();
     }
 
-    private File downloadPdfFromTelegram(Update update) throws IOException, TelegramApiException {
-        String fileId = update.getMessage().getDocument().getFileId();
-        String filePathResponse = telegramBot.execute(new GetFile(fileId)).getFilePath();
-        String fileUrl = "https://api.telegram.org/file/bot" + telegramBot.getBotToken() + "/" + filePathResponse;
-
-        File pdfFile = new File("C:\\Users\\Admin\\Documents\\" + fileId + ".pdf");
-        try (InputStream in = new URL(fileUrl).openStream()) {
-            Files.copy(in, pdfFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Уже загруженные файлы отправляются по file_id, без повторной передачи байтов.
+     * Если Telegram не принял сохранённый file_id, файл загружается заново.
+     */
+    private void sendExportFiles(Update update, List<File> files) {
+        String chatId = update.getMessage().getChatId().toString();
+        // Части отправляются строго по порядку, даже если какую-то пришлось загружать заново.
+        CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+        for (File file : files) {
+            previous = previous.thenCompose(ignored -> sendExportFile(chatId, file));
         }
-
-        return pdfFile;
     }
 
-    private void sendExcelFile(Update update) {
-        Long chatId = update.getMessage().getChatId();
-        File file = new File("C:\\Users\\Admin\\Documents\\userdata.xlsx"); // Убедитесь, что путь совпадает с тем местом, где создается файл
-        if (file.exists()) {
-            SendDocument sendDocument = new SendDocument();
-            sendDocument.setChatId(chatId.toString());
-            sendDocument.setDocument(new InputFile(file));
-            telegramBot.sendAnswerDocument(sendDocument);
-        } else {
-            setView(messageUtils.generateSendMessageWithText(update, "Файл не найден. Сначала экспортируйте данные с помощью команды /export."));
+    private CompletableFuture<Void> sendExportFile(String chatId, File file) {
+        // Версия файла фиксируется до загрузки: выгрузка может заменить файл, пока он отправляется.
+        String versionKey = UploadedFileCache.versionKey(file);
+        String fileId = uploadedFileCache.getFileId(versionKey);
+        if (fileId == null) {
+            return uploadExportFile(chatId, file, versionKey);
         }
+        return telegramBot.sendAnswerDocument(new SendDocument(chatId, new InputFile(fileId)))
+                .handle((sent, error) -> {
+                    if (error == null) return CompletableFuture.<Void>completedFuture(null);
+                    uploadedFileCache.forget(versionKey);
+                    return uploadExportFile(chatId, file, versionKey);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Void> uploadExportFile(String chatId, File file, String versionKey) {
+        return telegramBot.sendAnswerDocument(new SendDocument(chatId, new InputFile(file)))
+                .handle((sent, error) -> {
+                    if (error == null && sent.getDocument() != null) {
+                        uploadedFileCache.remember(versionKey, sent.getDocument().getFileId());
+                    }
+                    return null;
+                });
     }
 
     private void setUnsupportedMessageTypeView(Update update) {
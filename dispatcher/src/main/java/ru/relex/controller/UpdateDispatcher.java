@@ -0,0 +1,135 @@
+package ru.relex.controller;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Передаёт принятые обновления в {@link UpdateController}. Режим задаётся {@code bot.updates.execution}:
+ * <ul>
+ *     <li>{@code serial} (по умолчанию) — на потоке, который принял обновление, по одному;</li>
+ *     <li>{@code platform} — на пуле из {@code bot.updates.threads} потоков;</li>
+ *     <li>{@code virtual} — каждое обновление на своём виртуальном потоке (нужна JDK 21+).</li>
+ * </ul>
+ * В параллельных режимах обновления одного чата обрабатываются строго по порядку через
+ * {@link ChatSequencer}. Распознавание чеков остаётся на ограниченных пулах конвейера чеков,
+ * здесь выполняется только блокирующая работа с сетью и хранилищем.
+ */
+@Component
+@Log4j
+public class UpdateDispatcher {
+    @Value("${bot.updates.execution:serial}")
+    private String execution;
+    @Value("${bot.updates.threads:32}")
+    private int threads;
+
+    private final UpdateController updateController;
+    private final MeterRegistry meterRegistry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private ExecutorService executor;
+    private ChatSequencer sequencer;
+    private Timer handleTimer;
+
+    public UpdateDispatcher(UpdateController updateController, MeterRegistry meterRegistry) {
+        this.updateController = updateController;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        if ("virtual".equals(execution)) {
+            executor = newVirtualThreadExecutor();
+            if (executor == null) {
+                log.warn("Виртуальные потоки недоступны в этой JDK (" + Runtime.version() + "), обновления обрабатываются пулом из "
+                        + threads + " потоков");
+                execution = "platform";
+            }
+        }
+        if ("platform".equals(execution)) {
+            AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "telegram-update-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else if (!"virtual".equals(execution)) {
+            execution = "serial";
+        }
+        if (executor != null) {
+            sequencer = new ChatSequencer(executor);
+        }
+        bindMetrics();
+        log.info("Обработка обновлений: " + execution);
+    }
+
+    /**
+     * @return исполнитель «поток на задачу» на виртуальных потоках или {@code null}, если JDK их не поддерживает.
+     * Метод вызывается через reflection, потому что проект собирается под Java 11.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private void bindMetrics() {
+        handleTimer = Timer.builder("telegram.update").description("Обработка одного обновления")
+                .tag("execution", execution).register(meterRegistry);
+        Gauge.builder("telegram.updates.in.flight", inFlight, AtomicInteger::get)
+                .description("Обновления, принятые, но ещё не обработанные").register(meterRegistry);
+        if (sequencer != null) {
+            Gauge.builder("telegram.updates.chats", sequencer, ChatSequencer::getActiveChats)
+                    .description("Чаты с обрабатываемыми или ожидающими обновлениями").register(meterRegistry);
+        }
+    }
+
+    public void dispatch(Update update) {
+        inFlight.incrementAndGet();
+        if (sequencer == null || update.getMessage() == null) {
+            handle(update);
+            return;
+        }
+        try {
+            sequencer.submit(update.getMessage().getChatId(), () -> handle(update));
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            log.warn("Обработка обновлений остановлена, обновление " + update.getUpdateId() + " пропущено");
+        }
+    }
+
+    private void handle(Update update) {
+        long start = System.nanoTime();
+        try {
+            updateController.processUpdate(update);
+        } catch (RuntimeException e) {
+            log.error("Ошибка обработки обновления " + update.getUpdateId(), e);
+        } finally {
+            inFlight.decrementAndGet();
+            handleTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (executor == null) return;
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Не обработано обновлений при остановке: " + inFlight.get());
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ru.relex.controller;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Приём обновлений через webhook (bot.mode=webhook). Запрос подтверждается сразу,
+ * а обновление уходит в очередь, и отдельный поток в порядке поступления передаёт
+ * его в {@link UpdateDispatcher}, как и при long polling.
+ * <p>
+ * Telegram передаёт секрет в заголовке {@code X-Telegram-Bot-Api-Secret-Token};
+ * запросы без него или с другим секретом отклоняются. Без {@code bot.webhook.secret}
+ * диспетчер в этом режиме не запускается. При переполнении очереди отвечаем 503,
+ * и Telegram доставит обновление повторно.
+ * <p>
+ * Если задан {@code bot.webhook.url}, webhook регистрируется при старте. Без него
+ * адрес настраивается снаружи, а endpoint можно нагружать синтетическими обновлениями локально.
+ * <p>
+ * Webhook должен вести на единственный экземпляр диспетчера: сессии чатов
+ * ({@code ChatSessionStore}) и журнал участников хранятся в памяти и на диске процесса,
+ * поэтому несколько диспетчеров за балансировщиком разошлись бы в состоянии.
+ */
+@RestController
+@ConditionalOnProperty(name = "bot.mode", havingValue = "webhook")
+@Log4j
+public class WebhookController {
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    @Value("${bot.webhook.url:}")
+    private String webhookUrl;
+    @Value("${bot.webhook.secret:}")
+    private String secret;
+    @Value("${bot.webhook.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private final UpdateDispatcher updateDispatcher;
+    private final TelegramBot telegramBot;
+    private final MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor updateExecutor;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong unauthorized = new AtomicLong();
+
+    public WebhookController(UpdateDispatcher updateDispatcher, TelegramBot telegramBot, MeterRegistry meterRegistry) {
+        this.updateDispatcher = updateDispatcher;
+        this.telegramBot = telegramBot;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        updateExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "telegram-webhook");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        if (secret.isEmpty()) {
+            throw new IllegalStateException("bot.webhook.secret не задан: без секрета webhook принял бы запросы от кого угодно");
+        }
+        bindMetrics(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerWebhook() {
+        if (webhookUrl.isEmpty()) {
+            log.info("bot.webhook.url не задан: webhook должен быть зарегистрирован снаружи");
+            return;
+        }
+        SetWebhook setWebhook = new SetWebhook(webhookUrl);
+        setWebhook.setSecretToken(secret);
+        try {
+            telegramBot.execute(setWebhook);
+            log.info("Webhook зарегистрирован: " + webhookUrl);
+        } catch (TelegramApiException e) {
+            log.error("Не удалось зарегистрировать webhook " + webhookUrl, e);
+        }
+    }
+
+    @PostMapping("${bot.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> onUpdateReceived(@RequestHeader(name = SECRET_HEADER, required = false) String token,
+                                                 @RequestBody Update update) {
+        if (!isAuthorized(token)) {
+            unauthorized.incrementAndGet();
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        try {
+            updateExecutor.execute(() -> updateDispatcher.dispatch(update));
+            received.incrementAndGet();
+            return ResponseEntity.ok().build();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            log.warn("Очередь webhook переполнена, обновление " + update.getUpdateId() + " отклонено");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    private boolean isAuthorized(String token) {
+        if (token == null) return false;
+        // Сравнение за постоянное время, чтобы секрет нельзя было подобрать по задержке ответа.
+        return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void bindMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("telegram.webhook.updates", this, WebhookController::getReceived)
+                .tag("result", "accepted").register(registry);
+        FunctionCounter.builder("telegram.webhook.updates", this, WebhookController::getRejected)
+                .tag("result", "rejected").register(registry);
+        FunctionCounter.builder("telegram.webhook.updates", this, WebhookController::getUnauthorized)
+                .tag("result", "unauthorized").register(registry);
+        Gauge.builder("telegram.webhook.queued", this, WebhookController::getQueued).register(registry);
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getUnauthorized() {
+        return unauthorized.get();
+    }
+
+    public int getQueued() {
+        return updateExecutor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // Принятые и подтверждённые обновления Telegram повторно не пришлёт, поэтому очередь дорабатывается.
+        updateExecutor.shutdown();
+        if (!updateExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Не обработано обновлений webhook при остановке: " + updateExecutor.shutdownNow().size());
+        }
+    }
+}
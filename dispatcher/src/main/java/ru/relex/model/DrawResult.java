@@ -0,0 +1,33 @@
+package ru.relex.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Итог розыгрыша: зерно, число билетов и отпечаток индекса, по которым розыгрыш повторяется,
+ * и победители в порядке выбора.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class DrawResult {
+    private final String seed;
+    private final int ticketCount;
+    private final String indexDigest;
+    private final List<Winner> winners;
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Winner {
+        /** Позиция билета в индексе. */
+        private final int position;
+        private final UUID ticket;
+        @ToString.Exclude
+        private final Participant participant;
+    }
+}
@@ -0,0 +1,22 @@
+package ru.relex.model;
+
+/**
+ * Формат файла выгрузки.
+ */
+public enum ExportFormat {
+    XLSX("xlsx"),
+    /** Через запятую, UTF-8 с BOM, чтобы Excel сразу открыл кириллицу. */
+    CSV("csv"),
+    /** Через табуляцию, UTF-8. */
+    TSV("tsv");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,11 @@
+package ru.relex.model;
+
+/**
+ * Какие участники попадают в выгрузку.
+ */
+public enum ExportMode {
+    /** Все заполнившие анкету участники. */
+    FULL,
+    /** Только изменённые после предыдущей выгрузки. */
+    DELTA
+}
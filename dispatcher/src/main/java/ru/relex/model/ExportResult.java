@@ -0,0 +1,28 @@
+package ru.relex.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Итог выгрузки: режим, формат, диапазон мутаций реестра ({@code fromSeq}, {@code toSeq}],
+ * число строк и файлы частей в порядке следования.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ExportResult {
+    private final ExportMode mode;
+    private final ExportFormat format;
+    private final long fromSeq;
+    private final long toSeq;
+    private final int rows;
+    private final List<File> files;
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+}
@@ -0,0 +1,176 @@
+package ru.relex.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Участник розыгрыша, зарегистрированный по одному чеку. Билеты хранятся не строкой
+ * через запятую, а плоским массивом long: по три значения на билет — старшие и младшие
+ * биты UUID и номер записи журнала, которой билет выдан. По этому номеру индекс билетов
+ * после перезапуска восстанавливается в том же порядке, в каком строился при работе.
+ */
+public class Participant {
+    private static final long[] NO_TICKETS = new long[0];
+    private static final int TICKET_STRIDE = 3;
+
+    private final String checkNumber;
+    private final double paymentAmount;
+    private String fio;
+    private String address;
+    private String phone;
+    private long[] tickets = NO_TICKETS;
+    private volatile long lastSeq;
+
+    public Participant(String checkNumber, double paymentAmount) {
+        this.checkNumber = checkNumber;
+        this.paymentAmount = paymentAmount;
+    }
+
+    public String getCheckNumber() {
+        return checkNumber;
+    }
+
+    public double getPaymentAmount() {
+        return paymentAmount;
+    }
+
+    /**
+     * Номер последней мутации участника в журнале; по нему строится инкрементальная выгрузка.
+     */
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    public void setLastSeq(long lastSeq) {
+        this.lastSeq = lastSeq;
+    }
+
+    public synchronized String getFio() {
+        return fio;
+    }
+
+    public synchronized void setFio(String fio) {
+        this.fio = fio;
+    }
+
+    public synchronized String getAddress() {
+        return address;
+    }
+
+    public synchronized void setAddress(String address) {
+        this.address = address;
+    }
+
+    public synchronized String getPhone() {
+        return phone;
+    }
+
+    public synchronized void setPhone(String phone) {
+        this.phone = phone;
+    }
+
+    public synchronized boolean isComplete() {
+        return fio != null && address != null && phone != null;
+    }
+
+    /**
+     * @param issueSeq номер записи журнала, которой выдан билет
+     */
+    public synchronized void addTicket(UUID ticket, long issueSeq) {
+        long[] extended = new long[tickets.length + TICKET_STRIDE];
+        System.arraycopy(tickets, 0, extended, 0, tickets.length);
+        extended[tickets.length] = ticket.getMostSignificantBits();
+        extended[tickets.length + 1] = ticket.getLeastSignificantBits();
+        extended[tickets.length + 2] = issueSeq;
+        tickets = extended;
+    }
+
+    /**
+     * Убирает билет: откат выдачи, которая не попала в журнал.
+     */
+    public synchronized void removeTicket(UUID ticket) {
+        long msb = ticket.getMostSignificantBits();
+        long lsb = ticket.getLeastSignificantBits();
+        for (int i = 0; i < tickets.length; i += TICKET_STRIDE) {
+            if (tickets[i] == msb && tickets[i + 1] == lsb) {
+                long[] reduced = new long[tickets.length - TICKET_STRIDE];
+                System.arraycopy(tickets, 0, reduced, 0, i);
+                System.arraycopy(tickets, i + TICKET_STRIDE, reduced, i, tickets.length - i - TICKET_STRIDE);
+                tickets = reduced.length == 0 ? NO_TICKETS : reduced;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Добавляет билет, если его ещё нет. Нужен при восстановлении из журнала,
+     * где одна и та же запись может встретиться и в снимке, и в хвосте журнала.
+     */
+    public synchronized boolean addTicketIfAbsent(UUID ticket, long issueSeq) {
+        long msb = ticket.getMostSignificantBits();
+        long lsb = ticket.getLeastSignificantBits();
+        for (int i = 0; i < tickets.length; i += TICKET_STRIDE) {
+            if (tickets[i] == msb && tickets[i + 1] == lsb) return false;
+        }
+        addTicket(ticket, issueSeq);
+        return true;
+    }
+
+    public synchronized int getTicketCount() {
+        return tickets.length / TICKET_STRIDE;
+    }
+
+    public synchronized List<UUID> getTickets() {
+        List<UUID> result = new ArrayList<>(tickets.length / TICKET_STRIDE);
+        for (int i = 0; i < tickets.length; i += TICKET_STRIDE) {
+            result.add(new UUID(tickets[i], tickets[i + 1]));
+        }
+        return result;
+    }
+
+    /**
+     * Номер записи журнала, которой выдан билет с порядковым номером {@code index} в {@link #getTickets()}.
+     */
+    public synchronized long getTicketIssueSeq(int index) {
+        return tickets[index * TICKET_STRIDE + 2];
+    }
+
+    /**
+     * Обходит билеты в порядке их добавления вместе с номерами записей, которыми они выданы.
+     */
+    public synchronized void forEachTicket(TicketVisitor visitor) {
+        for (int i = 0; i < tickets.length; i += TICKET_STRIDE) {
+            visitor.visit(new UUID(tickets[i], tickets[i + 1]), tickets[i + 2]);
+        }
+    }
+
+    @FunctionalInterface
+    public interface TicketVisitor {
+        void visit(UUID ticket, long issueSeq);
+    }
+
+    /**
+     * Приблизительный размер записи в куче (64-битная JVM со сжатыми указателями и компактными строками).
+     */
+    public synchronized long estimateFootprintBytes() {
+        long bytes = 48; // заголовок объекта, 5 ссылок, double и long
+        bytes += estimateStringBytes(checkNumber);
+        bytes += estimateStringBytes(fio);
+        bytes += estimateStringBytes(address);
+        bytes += estimateStringBytes(phone);
+        if (tickets.length > 0) bytes += 16 + 8L * tickets.length;
+        return bytes;
+    }
+
+    private static long estimateStringBytes(String value) {
+        if (value == null) return 0;
+        boolean latin1 = value.chars().allMatch(c -> c <= 0xFF);
+        long payload = (long) value.length() * (latin1 ? 1 : 2);
+        return 24 + align(16 + payload);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
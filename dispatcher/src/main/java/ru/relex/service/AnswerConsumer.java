@@ -1,7 +1,9 @@
 package ru.relex.service;
 
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import ru.relex.model.AnswerEnvelope;
+
+import java.util.List;
 
 public interface AnswerConsumer {
-    void consume(SendMessage sendMessage);
+    void consume(List<AnswerEnvelope> answers);
 }
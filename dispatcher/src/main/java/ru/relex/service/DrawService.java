@@ -0,0 +1,13 @@
+package ru.relex.service;
+
+import ru.relex.model.DrawResult;
+
+public interface DrawService {
+    /**
+     * Выбирает до {@code winners} разных участников; шанс участника пропорционален числу его билетов.
+     * С тем же зерном на том же наборе билетов результат тот же.
+     *
+     * @param seed зерно генератора; если {@code null}, создаётся случайное и возвращается в результате
+     */
+    DrawResult draw(int winners, String seed);
+}
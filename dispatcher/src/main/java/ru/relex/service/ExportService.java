@@ -0,0 +1,21 @@
+package ru.relex.service;
+
+import ru.relex.model.ExportFormat;
+import ru.relex.model.ExportMode;
+import ru.relex.model.ExportResult;
+
+import java.io.IOException;
+
+public interface ExportService {
+    /**
+     * Выгружает участников и сдвигает отметку последней выгрузки.
+     * В режиме {@link ExportMode#DELTA} попадают только участники, изменённые после отметки;
+     * если изменений нет, файлы не создаются.
+     */
+    ExportResult export(ExportMode mode, ExportFormat format) throws IOException;
+
+    /**
+     * Последняя выгрузка с момента запуска или {@code null}, если её ещё не было.
+     */
+    ExportResult getLastExport();
+}
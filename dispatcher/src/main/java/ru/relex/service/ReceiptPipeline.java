@@ -0,0 +1,20 @@
+package ru.relex.service;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.relex.model.ReceiptExtractionResult;
+
+import java.util.function.Consumer;
+
+public interface ReceiptPipeline {
+    /**
+     * Ставит чек в очередь на обработку и сразу возвращает управление.
+     * Колбэки результата вызываются на отдельном потоке после завершения обработки.
+     *
+     * @param onAccepted вызывается на текущем потоке, когда чек принят, но ещё до передачи
+     *                   на обработку, поэтому всегда раньше колбэков результата; для чека,
+     *                   ответ на который взят из кэша, не вызывается
+     * @return {@code false}, если очередь заполнена и чек не принят
+     */
+    boolean submit(Update update, Runnable onAccepted, Consumer<ReceiptExtractionResult> onSuccess,
+                   Consumer<Exception> onFailure);
+}
@@ -1,14 +1,19 @@
 package ru.relex.service.impl;
 
+import lombok.extern.log4j.Log4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Service;
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import ru.relex.controller.UpdateController;
+import ru.relex.model.AnswerEnvelope;
 import ru.relex.service.AnswerConsumer;
 
+import java.util.List;
+
+import static ru.relex.messaging.BatchListenerConfiguration.BATCH_LISTENER_FACTORY;
 import static ru.relex.model.RabbitQueue.ANSWER_MESSAGE;
 
 @Service
+@Log4j
 public class AnswerConsumerImpl implements AnswerConsumer {
     private final UpdateController updateController;
 
@@ -17,8 +22,15 @@ public class AnswerConsumerImpl implements AnswerConsumer {
     }
 
     @Override
-    @RabbitListener(queues = ANSWER_MESSAGE)
-    public void consume(SendMessage sendMessage) {
-        updateController.setView(sendMessage);
+    @RabbitListener(queues = ANSWER_MESSAGE, containerFactory = BATCH_LISTENER_FACTORY)
+    public void consume(List<AnswerEnvelope> answers) {
+        // Пачка подтверждается целиком: ошибка одного ответа не должна возвращать в очередь остальные.
+        for (AnswerEnvelope answer : answers) {
+            try {
+                updateController.setView(answer.toSendMessage());
+            } catch (RuntimeException e) {
+                log.error("Не удалось отправить ответ в чат " + answer.getChatId(), e);
+            }
+        }
     }
 }
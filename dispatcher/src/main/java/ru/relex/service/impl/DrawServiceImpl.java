@@ -0,0 +1,87 @@
+package ru.relex.service.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.springframework.stereotype.Service;
+import ru.relex.model.DrawResult;
+import ru.relex.model.Participant;
+import ru.relex.service.DrawService;
+import ru.relex.storage.TicketIndex;
+import ru.relex.utils.DrawRandom;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Розыгрыш по {@link TicketIndex}: билеты выбираются без возвращения частичной перетасовкой
+ * Фишера–Йетса, где переставленные позиции хранятся в небольшой карте, а не в копии индекса.
+ * Билет участника, который уже выиграл, пропускается. Победителей не больше, чем разных
+ * владельцев билетов, и розыгрыш останавливается, как только выиграли все. Стоимость
+ * пропорциональна числу вытянутых билетов, а не размеру реестра.
+ */
+@Service
+@Log4j
+public class DrawServiceImpl implements DrawService {
+    private static final int SEED_BYTES = 16;
+
+    private final TicketIndex ticketIndex;
+    private final Timer drawTimer;
+    private final SecureRandom seedRandom = new SecureRandom();
+
+    public DrawServiceImpl(TicketIndex ticketIndex, MeterRegistry meterRegistry) {
+        this.ticketIndex = ticketIndex;
+        this.drawTimer = Timer.builder("draw").description("Розыгрыш по индексу билетов").register(meterRegistry);
+    }
+
+    @Override
+    public DrawResult draw(int winners, String seed) {
+        String drawSeed = seed != null ? seed : newSeed();
+        long start = System.nanoTime();
+        DrawResult result = ticketIndex.read(view -> draw(view, winners, drawSeed));
+        long elapsed = System.nanoTime() - start;
+        drawTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("Розыгрыш за " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " мс: " + result);
+        return result;
+    }
+
+    private static DrawResult draw(TicketIndex.View view, int count, String seed) {
+        DrawRandom random = new DrawRandom(seed);
+        int tickets = view.size();
+        int target = Math.min(count, view.ownerCount());
+        // Позиция -> билет, оказавшийся на ней после перестановок; нетронутые позиции хранят себя.
+        Map<Integer, Integer> moved = new HashMap<>();
+        Set<Participant> won = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<DrawResult.Winner> winners = new ArrayList<>(target);
+
+        for (int i = 0; i < tickets && winners.size() < target; i++) {
+            int j = i + random.nextInt(tickets - i);
+            int position = moved.getOrDefault(j, j);
+            Integer atI = moved.remove(i);
+            if (j != i) moved.put(j, atI != null ? atI : i);
+
+            Participant owner = view.ownerAt(position);
+            if (won.add(owner)) {
+                winners.add(new DrawResult.Winner(position, view.ticketAt(position), owner));
+            }
+        }
+        return new DrawResult(seed, tickets, view.digest(), winners);
+    }
+
+    private String newSeed() {
+        byte[] bytes = new byte[SEED_BYTES];
+        seedRandom.nextBytes(bytes);
+        StringBuilder seed = new StringBuilder(SEED_BYTES * 2);
+        for (byte b : bytes) {
+            seed.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return seed.toString();
+    }
+}
@@ -0,0 +1,335 @@
+package ru.relex.service.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.relex.model.ExportFormat;
+import ru.relex.model.ExportMode;
+import ru.relex.model.ExportResult;
+import ru.relex.model.Participant;
+import ru.relex.service.ExportService;
+import ru.relex.utils.UserDataStorage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выгрузка реестра участников. Каждая мутация реестра получает возрастающий номер,
+ * а после выгрузки номер последней выгруженной мутации сохраняется как отметка.
+ * Дельта-выгрузка берёт участников по индексу изменений, поэтому её стоимость
+ * зависит от числа изменений, а не от размера реестра.
+ * <p>
+ * Большие выгрузки делятся на части, чтобы каждая помещалась в лимит Telegram
+ * на размер документа: CSV/TSV по байтам, XLSX (сжатый) по числу строк.
+ * Части пишутся во временные файлы и переименовываются только в конце,
+ * так что /get_excel не отдаст недописанный файл.
+ */
+@Service
+@Log4j
+public class ExportServiceImpl implements ExportService {
+    /** Сколько строк XLSX держать в памяти, остальные сбрасываются во временный файл. */
+    private static final int EXPORT_ROW_WINDOW = 500;
+    private static final String[] COLUMNS = {"Unique Number", "FIO", "Address", "Phone", "UID"};
+    private static final String WATERMARK_FILE = "export.watermark";
+
+    @Value("${export.path:C:\\Users\\Admin\\Documents\\userdata.xlsx}")
+    private String filePath;
+    @Value("${export.part-max-mb:45}")
+    private long partMaxMb;
+    @Value("${export.xlsx-rows-per-part:500000}")
+    private int xlsxRowsPerPart;
+    @Value("${storage.dir:data}")
+    private String storageDir;
+
+    private final UserDataStorage userDataStorage;
+    private final MeterRegistry meterRegistry;
+
+    private volatile ExportResult lastExport;
+
+    public ExportServiceImpl(UserDataStorage userDataStorage, MeterRegistry meterRegistry) {
+        this.userDataStorage = userDataStorage;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public synchronized ExportResult export(ExportMode mode, ExportFormat format) throws IOException {
+        long fromSeq = mode == ExportMode.DELTA ? readWatermark() : 0;
+        // Номер фиксируем до обхода: всё, что изменится во время выгрузки, попадёт в следующую дельту.
+        long toSeq = userDataStorage.currentSeq();
+
+        if (mode == ExportMode.DELTA && toSeq <= fromSeq) {
+            return new ExportResult(mode, format, fromSeq, toSeq, 0, Collections.emptyList());
+        }
+
+        // Полная выгрузка тоже идёт по индексу изменений до зафиксированного номера: участник,
+        // изменённый во время обхода, попадёт в следующую дельту, а не в обе выгрузки сразу.
+        Collection<Participant> source = mode == ExportMode.DELTA
+                ? userDataStorage.getChangedParticipants(fromSeq, toSeq)
+                : userDataStorage.getParticipantsUpTo(toSeq);
+
+        long start = System.currentTimeMillis();
+        List<Path> parts = new ArrayList<>();
+        int rows = 0;
+        PartWriter writer = null;
+        try {
+            for (Participant participant : source) {
+                String[] cells;
+                // Поля одной строки читаем согласованно: участник может дописывать анкету прямо сейчас.
+                synchronized (participant) {
+                    if (!participant.isComplete()) {
+                        continue;
+                    }
+                    cells = new String[]{participant.getCheckNumber(), participant.getFio(),
+                            participant.getAddress(), participant.getPhone(), UserDataStorage.joinTickets(participant)};
+                }
+
+                if (writer == null || writer.isFull()) {
+                    if (writer != null) writer.close();
+                    writer = openPart(format, parts);
+                }
+                writer.writeRow(cells);
+                rows++;
+            }
+            if (writer == null) {
+                // Пустая выгрузка всё равно состоит из одного файла с заголовком.
+                writer = openPart(format, parts);
+            }
+            writer.close();
+            writer = null;
+        } finally {
+            if (writer != null) {
+                writer.abort();
+                for (Path part : parts) Files.deleteIfExists(part);
+            }
+        }
+
+        List<File> files = publish(parts, mode, format, fromSeq, toSeq);
+        writeWatermark(toSeq);
+        ExportResult result = new ExportResult(mode, format, fromSeq, toSeq, rows, Collections.unmodifiableList(files));
+        lastExport = result;
+        long elapsedMillis = System.currentTimeMillis() - start;
+        Timer.builder("export").tag("mode", mode.name().toLowerCase()).tag("format", format.name().toLowerCase())
+                .register(meterRegistry)
+                .record(elapsedMillis, TimeUnit.MILLISECONDS);
+        meterRegistry.counter("export.rows", "mode", mode.name().toLowerCase()).increment(rows);
+        log.info("Выгрузка " + mode + " " + format + ": " + rows + " строк, " + files.size()
+                + " файл(ов), мутации (" + fromSeq + ", " + toSeq + "], " + elapsedMillis + " мс");
+        return result;
+    }
+
+    @Override
+    public ExportResult getLastExport() {
+        return lastExport;
+    }
+
+    private PartWriter openPart(ExportFormat format, List<Path> parts) throws IOException {
+        Path target = Paths.get(filePath).toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".part" + (parts.size() + 1) + ".tmp");
+        parts.add(tmp);
+        if (format == ExportFormat.XLSX) {
+            return new XlsxPartWriter(tmp, xlsxRowsPerPart);
+        }
+        return new DelimitedPartWriter(tmp, format, partMaxMb * 1024 * 1024);
+    }
+
+    /**
+     * Переименовывает готовые части в итоговые имена. Полная выгрузка из одной части
+     * в XLSX сохраняется под прежним именем {@code export.path}.
+     */
+    private List<File> publish(List<Path> parts, ExportMode mode, ExportFormat format, long fromSeq, long toSeq) throws IOException {
+        Path target = Paths.get(filePath).toAbsolutePath();
+        String name = target.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        if (mode == ExportMode.DELTA) {
+            baseName += "-delta-" + fromSeq + "-" + toSeq;
+        }
+
+        List<File> files = new ArrayList<>(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            String suffix = parts.size() > 1 ? "-part" + (i + 1) : "";
+            Path published = target.resolveSibling(baseName + suffix + "." + format.getExtension());
+            Files.move(parts.get(i), published, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            files.add(published.toFile());
+        }
+        return files;
+    }
+
+    private long readWatermark() throws IOException {
+        Path path = Paths.get(storageDir).toAbsolutePath().resolve(WATERMARK_FILE);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        String value = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            log.warn("Повреждена отметка выгрузки '" + value + "', выгружаем все изменения");
+            return 0;
+        }
+    }
+
+    private void writeWatermark(long seq) throws IOException {
+        Path dir = Paths.get(storageDir).toAbsolutePath();
+        Files.createDirectories(dir);
+        Path tmp = dir.resolve(WATERMARK_FILE + ".tmp");
+        Files.write(tmp, Long.toString(seq).getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, dir.resolve(WATERMARK_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private interface PartWriter {
+        void writeRow(String[] cells) throws IOException;
+
+        boolean isFull();
+
+        void close() throws IOException;
+
+        void abort();
+    }
+
+    private static final class XlsxPartWriter implements PartWriter {
+        private final Path path;
+        private final int maxRows;
+        private final SXSSFWorkbook workbook = new SXSSFWorkbook(EXPORT_ROW_WINDOW);
+        private final Sheet sheet;
+        private int rowNum;
+
+        XlsxPartWriter(Path path, int maxRows) {
+            this.path = path;
+            this.maxRows = maxRows;
+            workbook.setCompressTempFiles(true);
+            sheet = workbook.createSheet("UserData");
+            writeCells(COLUMNS);
+        }
+
+        @Override
+        public void writeRow(String[] cells) {
+            writeCells(cells);
+        }
+
+        private void writeCells(String[] cells) {
+            Row row = sheet.createRow(rowNum++);
+            for (int i = 0; i < cells.length; i++) row.createCell(i).setCellValue(cells[i]);
+        }
+
+        @Override
+        public boolean isFull() {
+            return rowNum > maxRows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+                workbook.write(out);
+            } finally {
+                abort();
+            }
+        }
+
+        @Override
+        public void abort() {
+            workbook.dispose();
+            try {
+                workbook.close();
+            } catch (IOException e) {
+                log.warn("Не удалось закрыть книгу выгрузки", e);
+            }
+        }
+    }
+
+    /**
+     * CSV по RFC 4180 или TSV. Размер части считается по уже записанным байтам.
+     */
+    private static final class DelimitedPartWriter implements PartWriter {
+        private final ExportFormat format;
+        private final long maxBytes;
+        private final OutputStream out;
+        private long bytes;
+        private final StringBuilder line = new StringBuilder(256);
+
+        DelimitedPartWriter(Path path, ExportFormat format, long maxBytes) throws IOException {
+            this.format = format;
+            this.maxBytes = maxBytes;
+            this.out = new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024);
+            if (format == ExportFormat.CSV) {
+                write(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+            }
+            writeRow(COLUMNS);
+        }
+
+        @Override
+        public void writeRow(String[] cells) throws IOException {
+            line.setLength(0);
+            char separator = format == ExportFormat.CSV ? ',' : '\t';
+            for (int i = 0; i < cells.length; i++) {
+                if (i > 0) line.append(separator);
+                appendCell(cells[i]);
+            }
+            line.append("\r\n");
+            write(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void write(byte[] data) throws IOException {
+            out.write(data);
+            bytes += data.length;
+        }
+
+        private void appendCell(String value) {
+            if (value == null) return;
+            if (format == ExportFormat.TSV) {
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    line.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+                }
+                return;
+            }
+            boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                    || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+            if (!quote) {
+                line.append(value);
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') line.append('"');
+                line.append(c);
+            }
+            line.append('"');
+        }
+
+        @Override
+        public boolean isFull() {
+            // Запас под одну строку: анкета ограничена длиной сообщений Telegram.
+            return bytes >= maxBytes - 64 * 1024;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.warn("Не удалось закрыть файл выгрузки", e);
+            }
+        }
+    }
+}
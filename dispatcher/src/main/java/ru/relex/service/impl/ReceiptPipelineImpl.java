@@ -0,0 +1,282 @@
+package ru.relex.service.impl;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.objects.Document;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.relex.download.ReceiptContent;
+import ru.relex.model.ReceiptExtractionResult;
+import ru.relex.ocr.OcrEnginePool;
+import ru.relex.service.ReceiptDownloader;
+import ru.relex.service.ReceiptExtractor;
+import ru.relex.service.ReceiptPipeline;
+import ru.relex.storage.ReceiptDedupCache;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Обработка чеков вне потока long polling: скачивание -> извлечение (текстовый слой,
+ * рендеринг, OCR, разбор) -> завершение (сохранение и ответ пользователю).
+ * У каждой стадии свой пул потоков и своя ограниченная очередь.
+ * <p>
+ * Приём новых чеков ограничен бюджетом памяти: одна страница A4 при 300 DPI
+ * занимает в памяти десятки мегабайт, поэтому каждый чек резервирует
+ * {@code pipeline.receipt-memory-mb} до окончания извлечения. Резерв снимается только после
+ * передачи результата на стадию завершения; если её очередь занята, чек завершается
+ * на потоке предыдущей стадии, а не теряется.
+ * <p>
+ * Повторно присланные чеки отвечаются из {@link ReceiptDedupCache}: по file_unique_id
+ * ещё до скачивания, по SHA-256 содержимого сразу после него.
+ * <p>
+ * Работает в режиме {@code receipt.processing.mode=local} (по умолчанию). В режиме
+ * remote чеки разбирают воркеры nodee, см. {@link RemoteReceiptPipelineImpl}.
+ */
+@Service
+@ConditionalOnProperty(name = "receipt.processing.mode", havingValue = "local", matchIfMissing = true)
+@Log4j
+public class ReceiptPipelineImpl implements ReceiptPipeline {
+    @Value("${pipeline.memory-budget-mb:0}")
+    private int memoryBudgetMb;
+    @Value("${pipeline.receipt-memory-mb:40}")
+    private int receiptMemoryMb;
+    @Value("${pipeline.download.threads:4}")
+    private int downloadThreads;
+    @Value("${pipeline.complete.threads:2}")
+    private int completeThreads;
+
+    private final ReceiptDownloader receiptDownloader;
+    private final ReceiptExtractor receiptExtractor;
+    private final OcrEnginePool ocrEnginePool;
+    private final ReceiptDedupCache receiptDedupCache;
+    private final MeterRegistry meterRegistry;
+
+    private Semaphore memoryBudget;
+    private ThreadPoolExecutor downloadExecutor;
+    private ThreadPoolExecutor extractExecutor;
+    private ThreadPoolExecutor completeExecutor;
+
+    public ReceiptPipelineImpl(ReceiptDownloader receiptDownloader, ReceiptExtractor receiptExtractor,
+                               OcrEnginePool ocrEnginePool, ReceiptDedupCache receiptDedupCache,
+                               MeterRegistry meterRegistry) {
+        this.receiptDownloader = receiptDownloader;
+        this.receiptExtractor = receiptExtractor;
+        this.ocrEnginePool = ocrEnginePool;
+        this.receiptDedupCache = receiptDedupCache;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        int budgetMb = memoryBudgetMb > 0 ? memoryBudgetMb : (int) (Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024));
+        int maxInFlight = Math.max(1, budgetMb / receiptMemoryMb);
+        memoryBudget = new Semaphore(maxInFlight * receiptMemoryMb);
+
+        // Очереди рассчитаны на все принятые чеки, поэтому после приёма стадии чек не отклоняют.
+        downloadExecutor = newStage("receipt-download", downloadThreads, maxInFlight);
+        extractExecutor = newStage("receipt-extract", ocrEnginePool.getSize(), maxInFlight);
+        completeExecutor = newStage("receipt-complete", completeThreads, maxInFlight);
+        bindMetrics();
+        log.info("Конвейер чеков: бюджет памяти " + budgetMb + " МБ, одновременно в обработке до " + maxInFlight + " чеков");
+    }
+
+    @Override
+    public boolean submit(Update update, Runnable onAccepted, Consumer<ReceiptExtractionResult> onSuccess,
+                          Consumer<Exception> onFailure) {
+        // Уже разобранный файл отвечается сразу, без скачивания и без резервирования памяти.
+        long startNanos = System.nanoTime();
+        ReceiptExtractionResult cached = receiptDedupCache.findByUniqueId(update.getMessage().getDocument().getFileUniqueId());
+        if (cached != null) {
+            try {
+                completeExecutor.execute(() -> onSuccess.accept(cached));
+                record(startNanos, "cached");
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        if (!memoryBudget.tryAcquire(receiptMemoryMb)) {
+            log.warn("Чек отклонён: исчерпан бюджет памяти конвейера");
+            return false;
+        }
+        PipelineJob job = new PipelineJob(update, onSuccess, onFailure, startNanos);
+        try {
+            onAccepted.run();
+        } catch (RuntimeException e) {
+            job.releaseMemory();
+            throw e;
+        }
+        try {
+            downloadExecutor.execute(() -> download(job));
+            return true;
+        } catch (RejectedExecutionException e) {
+            job.releaseMemory();
+            return false;
+        }
+    }
+
+    private void download(PipelineJob job) {
+        ReceiptContent content = null;
+        try {
+            Document document = job.update.getMessage().getDocument();
+            content = receiptDownloader.download(document.getFileId(), document.getFileSize());
+            job.sha256 = content.sha256();
+            ReceiptExtractionResult cached = receiptDedupCache.findByHash(job.fileUniqueId(), job.sha256);
+            if (cached != null) {
+                closeQuietly(content);
+                record(job.startNanos, "cached");
+                complete(() -> job.onSuccess.accept(cached));
+                job.releaseMemory();
+                return;
+            }
+            ReceiptContent downloaded = content;
+            extractExecutor.execute(() -> extract(job, downloaded));
+        } catch (Exception e) {
+            closeQuietly(content);
+            fail(job, e);
+        }
+    }
+
+    private void extract(PipelineJob job, ReceiptContent content) {
+        try {
+            ReceiptExtractionResult receipt;
+            // Документ разбирается один раз и закрывается раньше, чем буфер или файл под ним.
+            try (ReceiptContent source = content; PDDocument document = source.load()) {
+                receipt = receiptExtractor.extract(document);
+            }
+            receiptDedupCache.put(job.fileUniqueId(), job.sha256, receipt);
+            record(job.startNanos, "extracted");
+            complete(() -> job.onSuccess.accept(receipt));
+            job.releaseMemory();
+        } catch (Exception e) {
+            fail(job, e);
+        }
+    }
+
+    private void closeQuietly(ReceiptContent content) {
+        if (content == null) return;
+        try {
+            content.close();
+        } catch (IOException e) {
+            log.warn("Не удалось освободить скачанный чек", e);
+        }
+    }
+
+    /**
+     * Не бросает исключений: вызывается из обработчиков ошибок стадий, и исключение отсюда
+     * оставило бы чек без ответа и с занятой памятью.
+     */
+    private void fail(PipelineJob job, Exception e) {
+        try {
+            record(job.startNanos, "failed");
+            complete(() -> job.onFailure.accept(e));
+        } catch (RuntimeException failure) {
+            log.error("Не удалось завершить чек с ошибкой", failure);
+        } finally {
+            job.releaseMemory();
+        }
+    }
+
+    /**
+     * Передаёт завершение чека на свою стадию. Если её очередь переполнена или пул уже
+     * остановлен, завершает на текущем потоке: принятый чек должен получить ответ.
+     */
+    private void complete(Runnable completion) {
+        try {
+            completeExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            try {
+                completion.run();
+            } catch (RuntimeException failure) {
+                log.error("Ошибка завершения чека", failure);
+            }
+        }
+    }
+
+    /**
+     * Время от приёма чека до результата, без ответа пользователю.
+     */
+    private void record(long startNanos, String result) {
+        Timer.builder("receipt.pipeline").tag("result", result)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void bindMetrics() {
+        Gauge.builder("receipt.pipeline.memory.available", this, ReceiptPipelineImpl::getAvailableMemoryMb)
+                .baseUnit("megabytes").register(meterRegistry);
+        Gauge.builder("receipt.pipeline.queued", downloadExecutor, executor -> executor.getQueue().size())
+                .tag("stage", "download").register(meterRegistry);
+        Gauge.builder("receipt.pipeline.queued", extractExecutor, executor -> executor.getQueue().size())
+                .tag("stage", "extract").register(meterRegistry);
+        Gauge.builder("receipt.pipeline.queued", completeExecutor, executor -> executor.getQueue().size())
+                .tag("stage", "complete").register(meterRegistry);
+    }
+
+    private ThreadPoolExecutor newStage(String name, int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+    }
+
+    public int getAvailableMemoryMb() {
+        return memoryBudget.availablePermits();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        downloadExecutor.shutdownNow();
+        extractExecutor.shutdownNow();
+        completeExecutor.shutdown();
+    }
+
+    private class PipelineJob {
+        private final Update update;
+        private final Consumer<ReceiptExtractionResult> onSuccess;
+        private final Consumer<Exception> onFailure;
+        private final long startNanos;
+        private final AtomicBoolean memoryReleased = new AtomicBoolean();
+        /** Задаётся на стадии скачивания, читается на стадии извлечения (передача через очередь пула). */
+        private String sha256;
+
+        private PipelineJob(Update update, Consumer<ReceiptExtractionResult> onSuccess, Consumer<Exception> onFailure,
+                            long startNanos) {
+            this.update = update;
+            this.onSuccess = onSuccess;
+            this.onFailure = onFailure;
+            this.startNanos = startNanos;
+        }
+
+        private String fileUniqueId() {
+            return update.getMessage().getDocument().getFileUniqueId();
+        }
+
+        private void releaseMemory() {
+            if (memoryReleased.compareAndSet(false, true)) {
+                memoryBudget.release(receiptMemoryMb);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ru.relex.service.impl;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.objects.Document;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.relex.messaging.BatchingPublisher;
+import ru.relex.model.ExtractionTier;
+import ru.relex.model.ReceiptExtractionResult;
+import ru.relex.model.ReceiptJob;
+import ru.relex.model.ReceiptJobResult;
+import ru.relex.service.ReceiptPipeline;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import static ru.relex.messaging.BatchListenerConfiguration.BATCH_LISTENER_FACTORY;
+import static ru.relex.model.RabbitQueue.DOC_MESSAGE_UPDATE;
+
+/**
+ * Разбор чеков на воркерах nodee: диспетчер публикует в {@code DOC_MESSAGE_UPDATE}
+ * лёгкое задание {@link ReceiptJob} и ждёт {@link ReceiptJobResult} с тем же
+ * correlationId в своей очереди ответов, имя которой передаётся в задании как {@code replyTo}.
+ * Скачивание, рендеринг и OCR идут в других процессах, поэтому их можно масштабировать
+ * числом воркеров.
+ * <p>
+ * Число ожидающих ответа чеков ограничено {@code receipt.remote.max-pending};
+ * чек без ответа дольше {@code receipt.remote.timeout-seconds} считается неразобранным.
+ */
+@Service
+@ConditionalOnProperty(name = "receipt.processing.mode", havingValue = "remote")
+@Log4j
+public class RemoteReceiptPipelineImpl implements ReceiptPipeline {
+    @Value("${receipt.remote.max-pending:10000}")
+    private int maxPending;
+    @Value("${receipt.remote.timeout-seconds:300}")
+    private long timeoutSeconds;
+
+    private final BatchingPublisher batchingPublisher;
+    private final AnonymousQueue receiptReplyQueue;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<String, PendingReceipt> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService timeoutExecutor;
+
+    public RemoteReceiptPipelineImpl(BatchingPublisher batchingPublisher, AnonymousQueue receiptReplyQueue,
+                                     MeterRegistry meterRegistry) {
+        this.batchingPublisher = batchingPublisher;
+        this.receiptReplyQueue = receiptReplyQueue;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("receipt.remote.pending", this, RemoteReceiptPipelineImpl::getPendingCount).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        timeoutExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "receipt-remote-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeoutExecutor.scheduleWithFixedDelay(this::expirePending, 10, 10, TimeUnit.SECONDS);
+        log.info("Чеки разбираются воркерами nodee, ожидание ответа до " + timeoutSeconds + " с");
+    }
+
+    @Override
+    public boolean submit(Update update, Runnable onAccepted, Consumer<ReceiptExtractionResult> onSuccess,
+                          Consumer<Exception> onFailure) {
+        if (pending.size() >= maxPending) {
+            log.warn("Чек отклонён: " + pending.size() + " чеков уже ждут ответа воркеров");
+            return false;
+        }
+        Document document = update.getMessage().getDocument();
+        String correlationId = UUID.randomUUID().toString();
+        pending.put(correlationId, new PendingReceipt(onSuccess, onFailure));
+        // До публикации: ответ воркера не должен обогнать подтверждение приёма.
+        try {
+            onAccepted.run();
+        } catch (RuntimeException e) {
+            pending.remove(correlationId);
+            throw e;
+        }
+        boolean published = batchingPublisher.publish(DOC_MESSAGE_UPDATE, new ReceiptJob(correlationId,
+                receiptReplyQueue.getName(), update.getMessage().getChatId(), document.getFileId(),
+                document.getFileUniqueId(), document.getFileSize()));
+        if (!published) {
+            pending.remove(correlationId);
+            log.error("Не удалось отправить чек воркерам: буфер публикации переполнен");
+        }
+        return published;
+    }
+
+    @RabbitListener(queues = "#{receiptReplyQueue.name}", containerFactory = BATCH_LISTENER_FACTORY)
+    public void onResults(List<ReceiptJobResult> results) {
+        for (ReceiptJobResult result : results) {
+            try {
+                onResult(result);
+            } catch (RuntimeException e) {
+                log.error("Ошибка обработки результата " + result.getCorrelationId(), e);
+            }
+        }
+    }
+
+    private void onResult(ReceiptJobResult result) {
+        PendingReceipt receipt = pending.remove(result.getCorrelationId());
+        if (receipt == null) {
+            // Ответ после таймаута или повтор доставки: пользователю уже ответили.
+            log.warn("Результат без ожидающего чека: " + result.getCorrelationId());
+            return;
+        }
+        record(receipt, result.getError() != null ? "failed" : "extracted");
+        if (result.getError() != null) {
+            receipt.onFailure.accept(new IllegalStateException("Воркер не разобрал чек: " + result.getError()));
+            return;
+        }
+        receipt.onSuccess.accept(new ReceiptExtractionResult(result.getPaymentAmount(), result.getCheckNumber(),
+                result.getPageIndex(), result.getConfidence(), ExtractionTier.valueOf(result.getTier())));
+    }
+
+    private void expirePending() {
+        long deadline = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        pending.forEach((correlationId, receipt) -> {
+            if (receipt.submittedMillis < deadline && pending.remove(correlationId, receipt)) {
+                record(receipt, "timeout");
+                receipt.onFailure.accept(new TimeoutException("Нет ответа от воркеров за " + timeoutSeconds + " с"));
+            }
+        });
+    }
+
+    /**
+     * Время от публикации задания до ответа воркера.
+     */
+    private void record(PendingReceipt receipt, String result) {
+        Timer.builder("receipt.pipeline").tag("result", result)
+                .register(meterRegistry)
+                .record(System.nanoTime() - receipt.submittedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timeoutExecutor.shutdownNow();
+    }
+
+    private static final class PendingReceipt {
+        private final Consumer<ReceiptExtractionResult> onSuccess;
+        private final Consumer<Exception> onFailure;
+        private final long submittedMillis = System.currentTimeMillis();
+        private final long submittedNanos = System.nanoTime();
+
+        private PendingReceipt(Consumer<ReceiptExtractionResult> onSuccess, Consumer<Exception> onFailure) {
+            this.onSuccess = onSuccess;
+            this.onFailure = onFailure;
+        }
+    }
+}
@@ -1,24 +1,28 @@
 package ru.relex.service.impl;
 
 import lombok.extern.log4j.Log4j;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Service;
 import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.relex.messaging.BatchingPublisher;
+import ru.relex.model.UpdateEnvelope;
 import ru.relex.service.UpdateProducer;
 
 
 @Service
 @Log4j
 public class UpdateProducerImpl implements UpdateProducer {
-    private final RabbitTemplate rabbitTemplate;
+    private final BatchingPublisher batchingPublisher;
 
-    public UpdateProducerImpl(RabbitTemplate rabbitTemplate) {
-        this.rabbitTemplate = rabbitTemplate;
+    public UpdateProducerImpl(BatchingPublisher batchingPublisher) {
+        this.batchingPublisher = batchingPublisher;
     }
 
     @Override
     public void produce(String rabbitQueue, Update update) {
         log.debug(update.getMessage().getText());
-        rabbitTemplate.convertAndSend(rabbitQueue, update);
+        UpdateEnvelope envelope = UpdateEnvelope.of(update);
+        if (envelope != null && !batchingPublisher.publish(rabbitQueue, envelope)) {
+            log.error("Буфер публикации переполнен, обновление " + update.getUpdateId() + " не отправлено");
+        }
     }
 }
@@ -0,0 +1,107 @@
+package ru.relex.storage;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Одна мутация реестра участников в журнале.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class JournalEntry {
+    public enum Type {
+        CHECK_ACCEPTED, FIO, ADDRESS, PHONE, TICKET_ISSUED,
+        /** Телефон, последнее поле анкеты, вместе с билетами за неё: участник не бывает заполненным без билетов. */
+        PHONE_WITH_TICKETS
+    }
+
+    private final Type type;
+    private final String checkNumber;
+    private final double paymentAmount;
+    private final String value;
+    private final UUID ticket;
+    private final List<UUID> tickets;
+
+    public static JournalEntry checkAccepted(String checkNumber, double paymentAmount) {
+        return new JournalEntry(Type.CHECK_ACCEPTED, checkNumber, paymentAmount, null, null, Collections.emptyList());
+    }
+
+    public static JournalEntry field(Type type, String checkNumber, String value) {
+        return new JournalEntry(type, checkNumber, 0, value, null, Collections.emptyList());
+    }
+
+    public static JournalEntry ticketIssued(String checkNumber, UUID ticket) {
+        return new JournalEntry(Type.TICKET_ISSUED, checkNumber, 0, null, ticket, Collections.emptyList());
+    }
+
+    public static JournalEntry phoneWithTickets(String checkNumber, String phone, List<UUID> tickets) {
+        return new JournalEntry(Type.PHONE_WITH_TICKETS, checkNumber, 0, phone, null,
+                Collections.unmodifiableList(new ArrayList<>(tickets)));
+    }
+
+    byte[] encode(long seq) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(seq);
+        out.writeByte(type.ordinal());
+        out.writeUTF(checkNumber);
+        switch (type) {
+            case CHECK_ACCEPTED:
+                out.writeDouble(paymentAmount);
+                break;
+            case TICKET_ISSUED:
+                out.writeLong(ticket.getMostSignificantBits());
+                out.writeLong(ticket.getLeastSignificantBits());
+                break;
+            case PHONE_WITH_TICKETS:
+                out.writeUTF(value);
+                out.writeInt(tickets.size());
+                for (UUID issued : tickets) {
+                    out.writeLong(issued.getMostSignificantBits());
+                    out.writeLong(issued.getLeastSignificantBits());
+                }
+                break;
+            default:
+                out.writeUTF(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Разбирает запись, записанную {@link #encode(long)}.
+     * Номер мутации возвращается через {@code seqHolder[0]}.
+     */
+    static JournalEntry decode(byte[] payload, long[] seqHolder) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        seqHolder[0] = in.readLong();
+        Type type = Type.values()[in.readUnsignedByte()];
+        String checkNumber = in.readUTF();
+        switch (type) {
+            case CHECK_ACCEPTED:
+                return checkAccepted(checkNumber, in.readDouble());
+            case TICKET_ISSUED:
+                return ticketIssued(checkNumber, new UUID(in.readLong(), in.readLong()));
+            case PHONE_WITH_TICKETS:
+                String phone = in.readUTF();
+                int count = in.readInt();
+                List<UUID> tickets = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    tickets.add(new UUID(in.readLong(), in.readLong()));
+                }
+                return phoneWithTickets(checkNumber, phone, tickets);
+            default:
+                return field(type, checkNumber, in.readUTF());
+        }
+    }
+}
@@ -0,0 +1,786 @@
+package ru.relex.storage;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.relex.model.Participant;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал изменений реестра участников на диске.
+ * <p>
+ * Каждая мутация дописывается в текущий сегмент {@code journal-N.log}. Записи
+ * пишет один поток: он забирает из очереди всё накопившееся, пишет пачкой
+ * и делает один fsync на пачку (group commit). Вызывающий поток ждёт, пока его
+ * запись окажется на диске.
+ * <p>
+ * Периодически журнал переключается на новый сегмент и рядом пишется снимок
+ * всего реестра {@code snapshot-N.bin}; сегменты до N после этого удаляются.
+ * При старте читается последний снимок и поверх него проигрываются сегменты
+ * начиная с N. Снимок снимается без остановки записи, поэтому часть записей
+ * хвоста уже может в нём быть — проигрывание записей идемпотентно.
+ * <p>
+ * Формат записи: {@code [int длина][int CRC32][данные]}. Недописанная запись
+ * в конце сегмента (сбой процесса во время записи) отбрасывается при восстановлении.
+ * Если ошибка записи случилась при работающем процессе, сегмент обрезается до последней
+ * подтверждённой записи (или журнал переходит на новый сегмент), а мутации неудачной пачки
+ * откатываются в памяти: подтверждённые записи никогда не идут после битой. Повреждённая
+ * запись в середине сегмента при восстановлении — ошибка старта, а не молча потерянный хвост.
+ */
+@Component
+@Log4j
+public class ParticipantJournal implements MeterBinder {
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d+)\\.bin");
+    private static final int SNAPSHOT_MAGIC = 0x52454753;
+    /**
+     * Версия 2: в записи участника добавлен номер его последней мутации.
+     * Версия 3: у каждого билета добавлен номер записи, которой он выдан.
+     */
+    private static final int SNAPSHOT_VERSION = 3;
+    private static final int MAX_BATCH = 1024;
+
+    @Value("${storage.dir:data}")
+    private String storageDir;
+    @Value("${storage.segment-max-mb:256}")
+    private long segmentMaxMb;
+    @Value("${storage.snapshot-interval-minutes:10}")
+    private long snapshotIntervalMinutes;
+    @Value("${storage.write-timeout-ms:10000}")
+    private long writeTimeoutMs;
+
+    private Path dir;
+    private final ReadWriteLock rotationLock = new ReentrantReadWriteLock();
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Object enqueueLock = new Object();
+    private long lastSeq;
+    private volatile boolean running;
+    private Thread writerThread;
+    private ScheduledExecutorService snapshotExecutor;
+
+    // Состояние потока записи.
+    private FileChannel channel;
+    private int currentSegment;
+    private long segmentSize;
+    private final ByteArrayOutputStream batchBuffer = new ByteArrayOutputStream(64 * 1024);
+    private final CRC32 crc = new CRC32();
+
+    private final LongAdder appendedRecords = new LongAdder();
+    private final LongAdder appendedBytes = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder fsyncNanos = new LongAdder();
+    private volatile long recoveryMillis;
+    private volatile long recoveredRecords;
+
+    /**
+     * Восстанавливает реестр из снимка и журнала и открывает журнал на запись.
+     */
+    public void open(Map<String, Participant> participants) {
+        try {
+            dir = Paths.get(storageDir).toAbsolutePath();
+            Files.createDirectories(dir);
+            long start = System.nanoTime();
+
+            int replayFrom = 0;
+            long maxSeq = 0;
+            long records = 0;
+            Integer snapshotIndex = latestIndex(SNAPSHOT_NAME);
+            if (snapshotIndex != null) {
+                replayFrom = snapshotIndex;
+                long[] snapshotResult = readSnapshot(snapshotPath(snapshotIndex), participants);
+                maxSeq = snapshotResult[0];
+                records += snapshotResult[1];
+            }
+
+            int lastSegment = replayFrom - 1;
+            for (int segment : indexes(SEGMENT_NAME)) {
+                lastSegment = Math.max(lastSegment, segment);
+                if (segment < replayFrom) continue;
+                long[] segmentResult = replaySegment(segmentPath(segment), participants);
+                maxSeq = Math.max(maxSeq, segmentResult[0]);
+                records += segmentResult[1];
+            }
+
+            lastSeq = maxSeq;
+            openSegment(lastSegment + 1);
+            recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            recoveredRecords = records;
+            log.info("Реестр восстановлен из " + dir + ": " + participants.size() + " участников, "
+                    + records + " записей за " + recoveryMillis + " мс");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось восстановить реестр из " + storageDir, e);
+        }
+
+        running = true;
+        writerThread = new Thread(this::writeLoop, "participant-journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Запускает периодическое снятие снимков реестра.
+     */
+    public void scheduleSnapshots(Supplier<Collection<Participant>> participants) {
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "participant-journal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(participants.get());
+            } catch (Exception e) {
+                log.error("Не удалось записать снимок реестра", e);
+            }
+        }, snapshotIntervalMinutes, snapshotIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Изменение реестра в памяти. Применяется под блокировкой журнала, в порядке номеров записей.
+     */
+    @FunctionalInterface
+    public interface Mutation {
+        /**
+         * @param seq номер, под которым запись уйдёт в журнал
+         * @return откат изменения на случай, если запись не попадёт на диск,
+         * или {@code null}, если менять нечего и запись не нужна
+         */
+        Runnable apply(long seq);
+    }
+
+    /**
+     * Применяет мутацию и, если она что-то изменила, ставит запись в журнал.
+     * Номера строго возрастают в порядке применения мутаций. Будущее завершается,
+     * когда запись окажется на диске; если записать её не удалось, мутация
+     * откатывается, а будущее завершается ошибкой.
+     *
+     * @return будущее с результатом мутации
+     */
+    public CompletableFuture<Boolean> appendAsync(Mutation mutation, JournalEntry entry) {
+        return appendAsync(mutation, entry, null);
+    }
+
+    /**
+     * То же, что {@link #appendAsync(Mutation, JournalEntry)}, но {@code onDurable} выполняется
+     * потоком записи сразу после fsync, до завершения будущего. Такие действия выполняются строго
+     * в порядке номеров записей и только для записей, попавших на диск; они должны быть быстрыми.
+     */
+    public CompletableFuture<Boolean> appendAsync(Mutation mutation, JournalEntry entry, Runnable onDurable) {
+        rotationLock.readLock().lock();
+        try {
+            synchronized (enqueueLock) {
+                Runnable undo = mutation.apply(lastSeq + 1);
+                if (undo == null) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                PendingWrite write = new PendingWrite(++lastSeq, entry, undo, onDurable);
+                queue.add(write);
+                return write;
+            }
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * То же, что {@link #appendAsync}, но дожидается записи на диск.
+     */
+    public boolean append(Mutation mutation, JournalEntry entry) {
+        return await(appendAsync(mutation, entry));
+    }
+
+    /**
+     * То же, что {@link #appendAsync(Mutation, JournalEntry, Runnable)}, но дожидается записи на диск.
+     */
+    public boolean append(Mutation mutation, JournalEntry entry, Runnable onDurable) {
+        return await(appendAsync(mutation, entry, onDurable));
+    }
+
+    /**
+     * Ждёт запись не дольше {@code storage.write-timeout-ms}. Если за это время поток записи
+     * её даже не взял, запись снимается с очереди и мутация откатывается. Запись, которая уже
+     * пишется, дожидается своего исхода: иначе вызывающий получил бы ошибку по изменению,
+     * которое всё-таки окажется на диске.
+     *
+     * @throws UncheckedIOException если запись не попала на диск; изменение в памяти к этому моменту откачено
+     */
+    public <T> T await(CompletableFuture<T> future) {
+        try {
+            try {
+                return future.get(writeTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (future instanceof PendingWrite && withdraw((PendingWrite) future)) {
+                    throw new UncheckedIOException(new IOException("Запись в журнал не началась за " + writeTimeoutMs
+                            + " мс, изменение отменено"));
+                }
+                return future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Прервано ожидание записи в журнал", e);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException(new IOException("Ошибка записи в журнал", e.getCause()));
+        }
+    }
+
+    /**
+     * @return {@code true}, если запись ещё стояла в очереди: она снята, мутация откачена
+     */
+    private boolean withdraw(PendingWrite write) {
+        synchronized (enqueueLock) {
+            if (!queue.remove(write)) return false;
+            undo(write);
+            write.completeExceptionally(new IOException("Запись в журнал отменена по таймауту"));
+            return true;
+        }
+    }
+
+    /**
+     * Номер последней мутации, поставленной в журнал.
+     */
+    public long currentSeq() {
+        synchronized (enqueueLock) {
+            return lastSeq;
+        }
+    }
+
+    /**
+     * Снимок соответствует ровно мутациям до {@code snapshotSeq}. Новые мутации ждут, пока
+     * участники не скопированы в файл: иначе в снимок попали бы записи нового сегмента,
+     * ещё не записанные на диск, и при сбое их записи снимок сохранил бы изменение,
+     * откаченное в памяти. Запись файла идёт без fsync, его делают уже после снятия блокировки.
+     */
+    public synchronized void snapshot(Collection<Participant> participants) throws IOException {
+        long start = System.nanoTime();
+        Path tmp = dir.resolve("snapshot.tmp");
+        int replayFrom;
+        long count = 0;
+        rotationLock.writeLock().lock();
+        try {
+            PendingWrite rotation;
+            long snapshotSeq;
+            synchronized (enqueueLock) {
+                snapshotSeq = lastSeq;
+                rotation = new PendingWrite(-1, null, null, null);
+                queue.add(rotation);
+            }
+            // Мутации до переключения к этому моменту либо на диске, либо откачены.
+            await(rotation);
+            replayFrom = rotation.segment;
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(snapshotSeq);
+                for (Participant participant : participants) {
+                    byte[] payload = encodeParticipant(participant);
+                    out.writeInt(payload.length);
+                    out.writeInt(checksum(payload));
+                    out.write(payload);
+                    count++;
+                }
+                out.writeInt(0);
+            }
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+        try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            file.force(true);
+        }
+        Files.move(tmp, snapshotPath(replayFrom), StandardCopyOption.ATOMIC_MOVE);
+
+        deleteBelow(SEGMENT_NAME, replayFrom);
+        deleteBelow(SNAPSHOT_NAME, replayFrom);
+        log.info("Снимок реестра: " + count + " участников за "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " мс");
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Ошибка записи в журнал", e);
+                batchBuffer.reset();
+                discardUnconfirmed();
+                fail(batch, e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) throws IOException {
+        List<PendingWrite> written = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            if (write.entry == null) {
+                flush(written);
+                openSegment(currentSegment + 1);
+                write.segment = currentSegment;
+                write.complete(true);
+            } else {
+                byte[] payload = write.entry.encode(write.seq);
+                writeFrame(batchBuffer, payload);
+                written.add(write);
+            }
+        }
+        flush(written);
+        if (segmentSize >= segmentMaxMb * 1024 * 1024) {
+            openSegment(currentSegment + 1);
+        }
+    }
+
+    private void flush(List<PendingWrite> written) throws IOException {
+        if (written.isEmpty()) return;
+        ByteBuffer buffer = ByteBuffer.wrap(batchBuffer.toByteArray());
+        batchBuffer.reset();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        long start = System.nanoTime();
+        channel.force(false);
+        fsyncNanos.add(System.nanoTime() - start);
+        fsyncs.increment();
+
+        segmentSize += buffer.capacity();
+        appendedBytes.add(buffer.capacity());
+        appendedRecords.add(written.size());
+        for (PendingWrite write : written) {
+            runDurable(write);
+            write.complete(true);
+        }
+        written.clear();
+    }
+
+    /**
+     * После ошибки в сегменте мог остаться кусок неподтверждённой пачки. Он обрезается до
+     * последней подтверждённой записи; если обрезать не вышло, следующие записи пойдут
+     * в новый сегмент. Так подтверждённая запись никогда не окажется после битой.
+     */
+    private void discardUnconfirmed() {
+        try {
+            if (channel.size() > segmentSize) {
+                channel.truncate(segmentSize);
+                channel.force(false);
+                log.warn("Сегмент " + segmentPath(currentSegment).getFileName() + " обрезан до " + segmentSize + " байт");
+            }
+            return;
+        } catch (IOException e) {
+            log.error("Не удалось обрезать сегмент " + segmentPath(currentSegment).getFileName()
+                    + ", переходим на новый", e);
+        }
+        try {
+            openSegment(currentSegment + 1);
+        } catch (IOException e) {
+            log.error("Не удалось открыть новый сегмент журнала", e);
+        }
+    }
+
+    /**
+     * Откатывает мутации неподтверждённых записей пачки в обратном порядке и завершает их ошибкой.
+     */
+    private void fail(List<PendingWrite> batch, Exception error) {
+        synchronized (enqueueLock) {
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                PendingWrite write = batch.get(i);
+                if (write.isDone()) continue;
+                undo(write);
+                write.completeExceptionally(error);
+            }
+        }
+    }
+
+    private static void runDurable(PendingWrite write) {
+        if (write.onDurable == null) return;
+        try {
+            write.onDurable.run();
+        } catch (RuntimeException e) {
+            log.error("Ошибка действия после записи " + write.seq, e);
+        }
+    }
+
+    private static void undo(PendingWrite write) {
+        if (write.undo == null) return;
+        try {
+            write.undo.run();
+        } catch (RuntimeException e) {
+            log.error("Не удалось откатить мутацию " + write.seq, e);
+        }
+    }
+
+    private void openSegment(int index) throws IOException {
+        if (channel != null) {
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+        channel = openChannel(segmentPath(index));
+        currentSegment = index;
+        segmentSize = channel.size();
+    }
+
+    FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void writeFrame(ByteArrayOutputStream out, byte[] payload) {
+        int checksum = checksum(payload);
+        writeInt(out, payload.length);
+        writeInt(out, checksum);
+        out.write(payload, 0, payload.length);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private int checksum(byte[] payload) {
+        synchronized (crc) {
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            return (int) crc.getValue();
+        }
+    }
+
+    /**
+     * @return {максимальный seq, число применённых записей}
+     */
+    private long[] replaySegment(Path path, Map<String, Participant> participants) throws IOException {
+        long maxSeq = 0;
+        long records = 0;
+        long[] seqHolder = new long[1];
+        MappedByteBuffer buffer = map(path);
+        while (buffer.hasRemaining()) {
+            byte[] payload = buffer.remaining() >= 8 ? readFrame(buffer) : null;
+            if (payload == null) {
+                if (!isTornTail(buffer)) {
+                    throw new IOException("Журнал " + path + " повреждён на позиции " + buffer.position()
+                            + ": после битой записи есть данные");
+                }
+                log.warn("Журнал " + path.getFileName() + " обрывается на позиции " + buffer.position()
+                        + ", недописанная запись отброшена");
+                break;
+            }
+            apply(JournalEntry.decode(payload, seqHolder), seqHolder[0], participants);
+            maxSeq = Math.max(maxSeq, seqHolder[0]);
+            records++;
+        }
+        return new long[]{maxSeq, records};
+    }
+
+    /**
+     * @return {seq снимка, число участников}
+     */
+    private long[] readSnapshot(Path path, Map<String, Participant> participants) throws IOException {
+        MappedByteBuffer buffer = map(path);
+        if (buffer.remaining() < 16 || buffer.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Повреждён снимок реестра " + path);
+        }
+        int version = buffer.getInt();
+        if (version < 1 || version > SNAPSHOT_VERSION) {
+            throw new IOException("Неизвестная версия снимка реестра " + version + ": " + path);
+        }
+        long seq = buffer.getLong();
+        long count = 0;
+        while (true) {
+            if (buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == 0) break;
+            byte[] payload = buffer.remaining() >= 8 ? readFrame(buffer) : null;
+            if (payload == null) throw new IOException("Повреждён снимок реестра " + path);
+            Participant participant = decodeParticipant(payload, version);
+            participants.put(participant.getCheckNumber(), participant);
+            count++;
+        }
+        return new long[]{seq, count};
+    }
+
+    /**
+     * Битая запись считается недописанным хвостом, если она доходит до конца файла
+     * или дальше неё только нули (файловая система выделила место, но данные не легли).
+     */
+    private static boolean isTornTail(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() >= 4) {
+            int length = buffer.getInt(start);
+            if (length > 0 && (long) length + 8 >= buffer.remaining()) return true;
+        } else {
+            return true;
+        }
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) != 0) return false;
+        }
+        return true;
+    }
+
+    private byte[] readFrame(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+            buffer.position(start);
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        if (checksum(payload) != checksum) {
+            buffer.position(start);
+            return null;
+        }
+        return payload;
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            return file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        }
+    }
+
+    static void apply(JournalEntry entry, long seq, Map<String, Participant> participants) {
+        if (entry.getType() == JournalEntry.Type.CHECK_ACCEPTED) {
+            participants.putIfAbsent(entry.getCheckNumber(), new Participant(entry.getCheckNumber(), entry.getPaymentAmount()));
+        }
+        Participant participant = participants.get(entry.getCheckNumber());
+        if (participant == null) return;
+        participant.setLastSeq(Math.max(participant.getLastSeq(), seq));
+        switch (entry.getType()) {
+            case FIO:
+                participant.setFio(entry.getValue());
+                break;
+            case ADDRESS:
+                participant.setAddress(entry.getValue());
+                break;
+            case PHONE:
+                participant.setPhone(entry.getValue());
+                break;
+            case TICKET_ISSUED:
+                participant.addTicketIfAbsent(entry.getTicket(), seq);
+                break;
+            case PHONE_WITH_TICKETS:
+                participant.setPhone(entry.getValue());
+                for (UUID ticket : entry.getTickets()) {
+                    participant.addTicketIfAbsent(ticket, seq);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static byte[] encodeParticipant(Participant participant) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        synchronized (participant) {
+            out.writeUTF(participant.getCheckNumber());
+            out.writeDouble(participant.getPaymentAmount());
+            writeNullable(out, participant.getFio());
+            writeNullable(out, participant.getAddress());
+            writeNullable(out, participant.getPhone());
+            List<UUID> tickets = participant.getTickets();
+            out.writeInt(tickets.size());
+            for (int i = 0; i < tickets.size(); i++) {
+                out.writeLong(tickets.get(i).getMostSignificantBits());
+                out.writeLong(tickets.get(i).getLeastSignificantBits());
+                out.writeLong(participant.getTicketIssueSeq(i));
+            }
+            out.writeLong(participant.getLastSeq());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Participant decodeParticipant(byte[] payload, int version) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Participant participant = new Participant(in.readUTF(), in.readDouble());
+        participant.setFio(readNullable(in));
+        participant.setAddress(readNullable(in));
+        participant.setPhone(readNullable(in));
+        int tickets = in.readInt();
+        for (int i = 0; i < tickets; i++) {
+            UUID ticket = new UUID(in.readLong(), in.readLong());
+            // До версии 3 номер выдачи не хранился: такие билеты идут в индексе первыми.
+            participant.addTicket(ticket, version >= 3 ? in.readLong() : 0);
+        }
+        if (version >= 2) {
+            participant.setLastSeq(in.readLong());
+        }
+        return participant;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private Path segmentPath(int index) {
+        return dir.resolve(String.format("journal-%010d.log", index));
+    }
+
+    private Path snapshotPath(int index) {
+        return dir.resolve(String.format("snapshot-%010d.bin", index));
+    }
+
+    private List<Integer> indexes(Pattern pattern) throws IOException {
+        List<Integer> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) result.add(Integer.parseInt(matcher.group(1)));
+            });
+        }
+        result.sort(null);
+        return result;
+    }
+
+    private Integer latestIndex(Pattern pattern) throws IOException {
+        List<Integer> result = indexes(pattern);
+        return result.isEmpty() ? null : result.get(result.size() - 1);
+    }
+
+    /**
+     * Удаляет устаревшие файлы. На Windows отображённый в память файл удалить нельзя,
+     * пока буфер не собран сборщиком мусора, — такие файлы удалятся при следующем снимке.
+     */
+    private void deleteBelow(Pattern pattern, int index) throws IOException {
+        for (int existing : indexes(pattern)) {
+            if (existing >= index) continue;
+            Path path = pattern == SEGMENT_NAME ? segmentPath(existing) : snapshotPath(existing);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить " + path.getFileName() + ", попробуем при следующем снимке");
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("storage.journal.records", this, ParticipantJournal::getAppendedRecords).register(registry);
+        FunctionCounter.builder("storage.journal.bytes", this, ParticipantJournal::getAppendedBytes)
+                .baseUnit("bytes").register(registry);
+        // Одна запись на диск подтверждает целую пачку мутаций: records/fsync — средний размер пачки.
+        FunctionTimer.builder("storage.journal.fsync", fsyncNanos, nanos -> fsyncs.sum(), LongAdder::sum, TimeUnit.NANOSECONDS)
+                .register(registry);
+        Gauge.builder("storage.journal.recovery", this, ParticipantJournal::getRecoveryMillis)
+                .baseUnit("milliseconds").register(registry);
+    }
+
+    public long getAppendedRecords() {
+        return appendedRecords.sum();
+    }
+
+    public long getAppendedBytes() {
+        return appendedBytes.sum();
+    }
+
+    public long getFsyncs() {
+        return fsyncs.sum();
+    }
+
+    public double getAverageFsyncMillis() {
+        long count = fsyncs.sum();
+        return count == 0 ? 0 : fsyncNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public double getAverageBatchSize() {
+        long count = fsyncs.sum();
+        return count == 0 ? 0 : (double) appendedRecords.sum() / count;
+    }
+
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException, IOException {
+        if (snapshotExecutor != null) snapshotExecutor.shutdownNow();
+        running = false;
+        if (writerThread != null) writerThread.join(writeTimeoutMs);
+        if (channel != null) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    /**
+     * Запись в очереди; сама является будущим, которое завершается после fsync.
+     */
+    private static class PendingWrite extends CompletableFuture<Boolean> {
+        private final long seq;
+        private final JournalEntry entry;
+        private final Runnable undo;
+        private final Runnable onDurable;
+        /** Для маркера переключения: номер нового сегмента. */
+        private volatile int segment;
+
+        /**
+         * @param entry {@code null} — маркер переключения на новый сегмент
+         */
+        private PendingWrite(long seq, JournalEntry entry, Runnable undo, Runnable onDurable) {
+            this.seq = seq;
+            this.entry = entry;
+            this.undo = undo;
+            this.onDurable = onDurable;
+        }
+    }
+}
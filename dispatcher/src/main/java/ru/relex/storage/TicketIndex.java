@@ -0,0 +1,211 @@
+package ru.relex.storage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+import ru.relex.model.Participant;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Все выданные билеты в непрерывных массивах: у билета с позицией {@code i} биты UUID лежат в
+ * {@code bits[2i]}, {@code bits[2i + 1]}, а владелец — в {@code owners[i]}. Розыгрыш выбирает позиции
+ * и читает только их, не копируя реестр. Владелец билета по UUID находится за O(1) через хеш-таблицу
+ * с открытой адресацией, в ячейках которой хранятся позиции.
+ * <p>
+ * Билеты добавляются в порядке номеров записей журнала, которыми они выданы, — и при работе,
+ * и при восстановлении. Вместе с ними считается SHA-256 по UUID в этом порядке: по отпечатку
+ * видно, что розыгрыш с тем же зерном повторён на том же наборе билетов.
+ */
+@Component
+public class TicketIndex implements MeterBinder {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] bits = new long[2 * INITIAL_CAPACITY];
+    private Participant[] owners = new Participant[INITIAL_CAPACITY];
+    /** Позиция билета + 1; 0 — пустая ячейка. Заполнена не больше чем наполовину. */
+    private int[] slots = new int[2 * INITIAL_CAPACITY];
+    private int size;
+    /** Число разных владельцев билетов в индексе. */
+    private int ownerCount;
+    private final MessageDigest digest;
+    private final byte[] ticketBytes = new byte[16];
+
+    public TicketIndex() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    /**
+     * @return {@code false}, если билет уже есть в индексе
+     */
+    public boolean add(UUID ticket, Participant owner) {
+        long msb = ticket.getMostSignificantBits();
+        long lsb = ticket.getLeastSignificantBits();
+        lock.writeLock().lock();
+        try {
+            if (find(msb, lsb) >= 0) return false;
+            if (size == owners.length) grow();
+            if (isNewOwner(owner, ticket)) ownerCount++;
+            bits[2 * size] = msb;
+            bits[2 * size + 1] = lsb;
+            owners[size] = owner;
+            insertSlot(msb, lsb, size);
+            size++;
+            updateDigest(msb, lsb);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * У участника всего несколько билетов, поэтому первый ли это его билет в индексе,
+     * проверяется поиском остальных, без отдельного множества владельцев.
+     */
+    private boolean isNewOwner(Participant owner, UUID ticket) {
+        for (UUID other : owner.getTickets()) {
+            if (!other.equals(ticket) && find(other.getMostSignificantBits(), other.getLeastSignificantBits()) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Participant findOwner(UUID ticket) {
+        lock.readLock().lock();
+        try {
+            int position = find(ticket.getMostSignificantBits(), ticket.getLeastSignificantBits());
+            return position >= 0 ? owners[position] : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Выполняет {@code reader} над неизменным на время вызова индексом: билеты не добавляются,
+     * пока он работает, поэтому держать его надо миллисекунды.
+     */
+    public <T> T read(Reader<T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.read(new View());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Reader<T> {
+        T read(View view);
+    }
+
+    /**
+     * Доступ к индексу внутри {@link #read}.
+     */
+    public final class View {
+        private View() {
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Число разных владельцев: больше победителей, чем их, розыгрыш не даст.
+         */
+        public int ownerCount() {
+            return ownerCount;
+        }
+
+        public UUID ticketAt(int position) {
+            return new UUID(bits[2 * position], bits[2 * position + 1]);
+        }
+
+        public Participant ownerAt(int position) {
+            return owners[position];
+        }
+
+        /**
+         * @return SHA-256 по всем билетам индекса в порядке позиций, в hex
+         */
+        public String digest() {
+            try {
+                return toHex(((MessageDigest) digest.clone()).digest());
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException("Реализация SHA-256 не поддерживает копирование", e);
+            }
+        }
+    }
+
+    private int find(long msb, long lsb) {
+        int mask = slots.length - 1;
+        for (int slot = hash(msb, lsb) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int position = slots[slot] - 1;
+            if (bits[2 * position] == msb && bits[2 * position + 1] == lsb) return position;
+        }
+        return -1;
+    }
+
+    private void insertSlot(long msb, long lsb, int position) {
+        int mask = slots.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (slots[slot] != 0) slot = (slot + 1) & mask;
+        slots[slot] = position + 1;
+    }
+
+    private void grow() {
+        int capacity = owners.length * 2;
+        bits = Arrays.copyOf(bits, 2 * capacity);
+        owners = Arrays.copyOf(owners, capacity);
+        slots = new int[2 * capacity];
+        for (int position = 0; position < size; position++) {
+            insertSlot(bits[2 * position], bits[2 * position + 1], position);
+        }
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void updateDigest(long msb, long lsb) {
+        for (int i = 0; i < 8; i++) {
+            ticketBytes[i] = (byte) (msb >>> (56 - 8 * i));
+            ticketBytes[8 + i] = (byte) (lsb >>> (56 - 8 * i));
+        }
+        digest.update(ticketBytes);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("tickets.indexed", this, TicketIndex::size).register(registry);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.relex.utils;
+
+import lombok.Getter;
+
+/**
+ * Состояние диалога регистрации одного чата: принятый чек и текущий шаг ввода
+ * (0 — ФИО, 1 — адрес, 2 — телефон). Изменяется только внутри
+ * {@link ChatSessionStore}, под блокировкой сессии.
+ */
+@Getter
+public class ChatSession {
+    private final long chatId;
+    private String checkNumber;
+    private int inputStep;
+    private volatile long lastAccessMillis;
+    private boolean evicted;
+
+    public ChatSession(long chatId) {
+        this.chatId = chatId;
+        this.lastAccessMillis = System.currentTimeMillis();
+    }
+
+    public void start(String checkNumber) {
+        this.checkNumber = checkNumber;
+        this.inputStep = 0;
+    }
+
+    public void nextStep() {
+        inputStep++;
+    }
+
+    public void finish() {
+        checkNumber = null;
+        inputStep = 0;
+    }
+
+    public boolean isActive() {
+        return checkNumber != null;
+    }
+
+    void touch() {
+        lastAccessMillis = System.currentTimeMillis();
+    }
+
+    void markEvicted() {
+        evicted = true;
+    }
+}
@@ -0,0 +1,144 @@
+package ru.relex.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Сессии регистрации по chatId. Действия над одной сессией выполняются строго
+ * по очереди (под её монитором), разные чаты обрабатываются параллельно.
+ * Брошенные сессии удаляются после {@code session.ttl-minutes} бездействия,
+ * число сессий ограничено {@code session.max-size}.
+ */
+@Component
+@Log4j
+public class ChatSessionStore implements MeterBinder {
+    @Value("${session.ttl-minutes:30}")
+    private long ttlMinutes;
+    @Value("${session.max-size:100000}")
+    private int maxSize;
+
+    private final ConcurrentHashMap<Long, ChatSession> sessions = new ConcurrentHashMap<>();
+    private ScheduledExecutorService evictionExecutor;
+
+    @PostConstruct
+    public void init() {
+        evictionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-session-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictionExecutor.scheduleWithFixedDelay(this::evictExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Выполняет действие над сессией чата, создавая её при необходимости.
+     */
+    public void update(long chatId, Consumer<ChatSession> action) {
+        while (true) {
+            ChatSession session = sessions.get(chatId);
+            if (session == null) {
+                ensureCapacity();
+                session = sessions.computeIfAbsent(chatId, ChatSession::new);
+            }
+            if (apply(session, action)) return;
+        }
+    }
+
+    /**
+     * Выполняет действие, только если у чата есть начатая регистрация.
+     *
+     * @return {@code false}, если активной сессии нет
+     */
+    public boolean updateIfPresent(long chatId, Consumer<ChatSession> action) {
+        while (true) {
+            ChatSession session = sessions.get(chatId);
+            if (session == null) return false;
+            synchronized (session) {
+                if (session.isEvicted()) continue;
+                if (!session.isActive()) return false;
+            }
+            if (apply(session, action)) return true;
+        }
+    }
+
+    private boolean apply(ChatSession session, Consumer<ChatSession> action) {
+        synchronized (session) {
+            if (session.isEvicted()) return false;
+            session.touch();
+            action.accept(session);
+            if (!session.isActive()) {
+                session.markEvicted();
+                sessions.remove(session.getChatId(), session);
+            }
+            return true;
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.sessions.active", this, ChatSessionStore::size).register(registry);
+    }
+
+    private void ensureCapacity() {
+        if (sessions.size() < maxSize) return;
+        evictExpired();
+        if (sessions.size() < maxSize) return;
+
+        ChatSession oldest = null;
+        for (ChatSession session : sessions.values()) {
+            if (oldest == null || session.getLastAccessMillis() < oldest.getLastAccessMillis()) {
+                oldest = session;
+            }
+        }
+        if (oldest != null) {
+            log.warn("Достигнут лимит сессий (" + maxSize + "), удаляем самую старую: " + oldest.getChatId());
+            evict(oldest);
+        }
+    }
+
+    private void evictExpired() {
+        long deadline = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ttlMinutes);
+        int evicted = 0;
+        for (ChatSession session : sessions.values()) {
+            if (session.getLastAccessMillis() < deadline && evict(session, deadline)) {
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            log.info("Удалено брошенных сессий: " + evicted);
+        }
+    }
+
+    private void evict(ChatSession session) {
+        evict(session, Long.MAX_VALUE);
+    }
+
+    private boolean evict(ChatSession session, long deadline) {
+        synchronized (session) {
+            if (session.isEvicted() || session.getLastAccessMillis() >= deadline) return false;
+            session.markEvicted();
+            return sessions.remove(session.getChatId(), session);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        evictionExecutor.shutdownNow();
+    }
+}
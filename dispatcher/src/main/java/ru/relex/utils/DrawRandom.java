@@ -0,0 +1,67 @@
+package ru.relex.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Воспроизводимый генератор для розыгрыша: блок {@code i} — SHA-256 от зерна и номера блока
+ * (8 байт, big-endian). Зная зерно, последовательность может пересчитать кто угодно,
+ * без привязки к реализации {@link java.util.Random} в конкретной JDK.
+ */
+public class DrawRandom {
+    private final MessageDigest sha256;
+    private final byte[] seed;
+    private final byte[] counterBytes = new byte[8];
+    private long counter;
+    private byte[] block;
+    private int offset;
+
+    public DrawRandom(String seed) {
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+        this.seed = seed.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return равномерно распределённое число из [0, bound); без смещения по модулю
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound должен быть положительным: " + bound);
+        }
+        // Значения из неполного последнего интервала отбрасываются, как в java.util.Random.
+        int bits;
+        int value;
+        do {
+            bits = nextInt() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    private int nextInt() {
+        if (block == null || offset == block.length) {
+            nextBlock();
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (block[offset++] & 0xFF);
+        }
+        return value;
+    }
+
+    private void nextBlock() {
+        for (int i = 0; i < 8; i++) {
+            counterBytes[i] = (byte) (counter >>> (56 - 8 * i));
+        }
+        counter++;
+        sha256.update(seed);
+        sha256.update(counterBytes);
+        block = sha256.digest();
+        offset = 0;
+    }
+}
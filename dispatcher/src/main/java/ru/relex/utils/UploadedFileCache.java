@@ -0,0 +1,64 @@
+package ru.relex.utils;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * file_id документов, уже загруженных в Telegram. Повторная отправка по file_id
+ * не передаёт байты файла заново. Ключ включает путь, размер и время изменения,
+ * поэтому перезаписанный файл под тем же именем считается новой версией;
+ * новая выгрузка дополнительно сбрасывает кэш целиком.
+ * <p>
+ * Ключ снимается до начала загрузки ({@link #versionKey(File)}) и передаётся в
+ * {@link #remember(String, String)}: если за время загрузки выгрузка заменила файл,
+ * file_id старой версии останется под старым ключом и не будет выдан за новую.
+ */
+@Component
+public class UploadedFileCache implements MeterBinder {
+    private final ConcurrentHashMap<String, String> fileIds = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+
+    public String getFileId(String versionKey) {
+        String fileId = fileIds.get(versionKey);
+        if (fileId != null) hits.incrementAndGet();
+        return fileId;
+    }
+
+    public void remember(String versionKey, String fileId) {
+        uploads.incrementAndGet();
+        fileIds.put(versionKey, fileId);
+    }
+
+    public void forget(String versionKey) {
+        fileIds.remove(versionKey);
+    }
+
+    public void invalidate() {
+        fileIds.clear();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("telegram.upload.cache.hits", this, UploadedFileCache::getHits).register(registry);
+        FunctionCounter.builder("telegram.upload.files", this, UploadedFileCache::getUploads).register(registry);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    public static String versionKey(File file) {
+        return file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+    }
+}
@@ -1,99 +1,311 @@
 package ru.relex.utils;
 
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.stereotype.Component;
+import ru.relex.model.Participant;
+import ru.relex.storage.JournalEntry;
+import ru.relex.storage.ParticipantJournal;
+import ru.relex.storage.TicketIndex;
 
-import java.io.*;
-import java.nio.file.Paths;
+import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Component
-public class UserDataStorage {
-    public final Map<String, Map<String, String>> userData = new HashMap<>();
-    private final Set<String> uniqueChecks = new HashSet<>();
-    private final String filePath = Paths.get("C:\\Users\\Admin\\Documents\\userdata.xlsx").toAbsolutePath().toString();
+public class UserDataStorage implements MeterBinder {
+    /** Накладные расходы ConcurrentHashMap на одну запись: узел и ячейка таблицы. */
+    private static final int MAP_ENTRY_BYTES = 36;
 
-    public boolean validateAndSaveCheck(String uniqueNumber) {
-        if (uniqueNumber == null || uniqueChecks.contains(uniqueNumber)) return false;
+    private final ConcurrentHashMap<String, Participant> participants = new ConcurrentHashMap<>();
+    /** Участники по номеру их последней мутации: по нему выгрузка находит изменения без обхода всего реестра. */
+    private final ConcurrentSkipListMap<Long, Participant> changes = new ConcurrentSkipListMap<>();
+    private final ParticipantJournal journal;
+    private final TicketIndex ticketIndex;
 
-        uniqueChecks.add(uniqueNumber);
-        userData.putIfAbsent(uniqueNumber, new HashMap<>());
-        return true;
+    public UserDataStorage(ParticipantJournal journal, TicketIndex ticketIndex) {
+        this.journal = journal;
+        this.ticketIndex = ticketIndex;
     }
 
-    public File exportToExcel() {
-        File excelFile = new File(filePath);
-        boolean fileExists = excelFile.exists();
-
-        try (Workbook workbook = fileExists ? new XSSFWorkbook(new FileInputStream(excelFile)) : new XSSFWorkbook()) {
-            Sheet sheet = fileExists ? workbook.getSheet("UserData") : workbook.createSheet("UserData");
-            if (sheet == null) sheet = workbook.createSheet("UserData");
+    @PostConstruct
+    public void init() {
+        journal.open(participants);
+        indexChanges();
+        indexTickets();
+        journal.scheduleSnapshots(this::getParticipants);
+    }
 
-            if (!fileExists) {
-                Row header = sheet.createRow(0);
-                String[] columns = {"Unique Number", "FIO", "Address", "Phone", "UID"};
-                for (int i = 0; i < columns.length; i++) header.createCell(i).setCellValue(columns[i]);
+    /**
+     * Снимки первой версии не хранили номер мутации участника. Такие участники получают
+     * отрицательные номера, чтобы у каждого был свой ключ в {@link #changes}: в полную выгрузку
+     * они попадают, в дельту, которая начинается с неотрицательной отметки, нет.
+     */
+    private void indexChanges() {
+        List<Participant> legacy = new ArrayList<>();
+        for (Participant participant : participants.values()) {
+            if (participant.getLastSeq() == 0) {
+                legacy.add(participant);
+            } else {
+                changes.put(participant.getLastSeq(), participant);
             }
+        }
+        legacy.sort(Comparator.comparing(Participant::getCheckNumber));
+        long seq = 0;
+        for (Participant participant : legacy) {
+            participant.setLastSeq(--seq);
+            changes.put(seq, participant);
+        }
+    }
 
-            int rowNum = sheet.getLastRowNum() + 1;
-            for (var entry : userData.entrySet()) {
-                Map<String, String> data = entry.getValue();
-                if (!data.containsKey("fio") || !data.containsKey("address") || !data.containsKey("phone")) {
-                    continue;
-                }
+    /**
+     * При работе билеты попадают в индекс в порядке номеров записей журнала, которыми они
+     * выданы, поэтому после восстановления индекс строится в том же порядке. Билеты из старых
+     * снимков без номера выдачи идут первыми, по номерам чеков.
+     */
+    private void indexTickets() {
+        List<Participant> sorted = new ArrayList<>(participants.values());
+        sorted.sort(Comparator.comparing(Participant::getCheckNumber));
+        List<IssuedTicket> tickets = new ArrayList<>();
+        for (Participant participant : sorted) {
+            participant.forEachTicket((ticket, issueSeq) -> tickets.add(new IssuedTicket(issueSeq, ticket, participant)));
+        }
+        // Сортировка устойчивая: при равных номерах сохраняется порядок по номерам чеков.
+        tickets.sort(Comparator.comparingLong(ticket -> ticket.issueSeq));
+        for (IssuedTicket ticket : tickets) {
+            ticketIndex.add(ticket.ticket, ticket.owner);
+        }
+    }
 
-                Row row = sheet.createRow(rowNum++);
-                row.createCell(0).setCellValue(entry.getKey());
-                row.createCell(1).setCellValue(data.getOrDefault("fio", ""));
-                row.createCell(2).setCellValue(data.getOrDefault("address", ""));
-                row.createCell(3).setCellValue(data.getOrDefault("phone", ""));
-                row.createCell(4).setCellValue(data.getOrDefault("uid", ""));
-            }
+    /**
+     * Регистрирует чек атомарно: повторный номер чека не принимается,
+     * даже если два одинаковых чека обрабатываются одновременно.
+     * Все изменения реестра возвращаются только после записи в журнал на диске.
+     *
+     * @return {@code false}, если чек с таким номером уже был принят
+     */
+    public boolean registerCheck(String checkNumber, double paymentAmount) {
+        if (checkNumber == null) return false;
+        Participant participant = new Participant(checkNumber, paymentAmount);
+        return journal.append(seq -> {
+            if (participants.putIfAbsent(checkNumber, participant) != null) return null;
+            Runnable unmark = markChanged(participant, seq);
+            return () -> {
+                unmark.run();
+                participants.remove(checkNumber, participant);
+            };
+        }, JournalEntry.checkAccepted(checkNumber, paymentAmount));
+    }
+
+    public boolean isCheckProcessed(String checkNumber) {
+        return participants.containsKey(checkNumber);
+    }
+
+    public Participant getParticipant(String checkNumber) {
+        return participants.get(checkNumber);
+    }
+
+    public Collection<Participant> getParticipants() {
+        return Collections.unmodifiableCollection(participants.values());
+    }
+
+    /**
+     * Участники, изменённые после мутации {@code afterSeq} и не позже {@code upToSeq}.
+     * Стоимость пропорциональна числу изменений, а не размеру реестра.
+     */
+    public Collection<Participant> getChangedParticipants(long afterSeq, long upToSeq) {
+        return Collections.unmodifiableCollection(changes.subMap(afterSeq, false, upToSeq, true).values());
+    }
+
+    /**
+     * Все участники, последняя мутация которых не позже {@code upToSeq}: согласованный срез
+     * реестра на этот номер без тех, кто зарегистрирован или изменён после него.
+     */
+    public Collection<Participant> getParticipantsUpTo(long upToSeq) {
+        return Collections.unmodifiableCollection(changes.headMap(upToSeq, true).values());
+    }
+
+    /**
+     * Номер последней мутации реестра.
+     */
+    public long currentSeq() {
+        return journal.currentSeq();
+    }
+
+    public int size() {
+        return participants.size();
+    }
 
-            try (FileOutputStream fileOut = new FileOutputStream(excelFile)) {
-                workbook.write(fileOut);
+    public void setFio(String checkNumber, String fio) {
+        update(checkNumber, participant -> {
+            String previous = participant.getFio();
+            participant.setFio(fio);
+            return () -> participant.setFio(previous);
+        }, JournalEntry.field(JournalEntry.Type.FIO, checkNumber, fio));
+    }
+
+    public void setAddress(String checkNumber, String address) {
+        update(checkNumber, participant -> {
+            String previous = participant.getAddress();
+            participant.setAddress(address);
+            return () -> participant.setAddress(previous);
+        }, JournalEntry.field(JournalEntry.Type.ADDRESS, checkNumber, address));
+    }
+
+    public void setPhone(String checkNumber, String phone) {
+        update(checkNumber, participant -> {
+            String previous = participant.getPhone();
+            participant.setPhone(phone);
+            return () -> participant.setPhone(previous);
+        }, JournalEntry.field(JournalEntry.Type.PHONE, checkNumber, phone));
+    }
+
+    /**
+     * Записывает телефон, последнее поле анкеты, и выдаёт билеты за неё одной записью журнала.
+     * Участник не бывает заполненным без билетов, поэтому {@link #assignRandomUUIDs()},
+     * запущенный из другого чата, не выдаст ему лишний билет.
+     */
+    public void completeProfile(String checkNumber, String phone, List<UUID> tickets) {
+        Participant participant = participants.get(checkNumber);
+        journal.append(seq -> {
+            String previous;
+            synchronized (participant) {
+                previous = participant.getPhone();
+                participant.setPhone(phone);
+                for (UUID ticket : tickets) participant.addTicket(ticket, seq);
             }
+            Runnable unmark = markChanged(participant, seq);
+            return () -> {
+                synchronized (participant) {
+                    for (UUID ticket : tickets) participant.removeTicket(ticket);
+                    participant.setPhone(previous);
+                }
+                unmark.run();
+            };
+        }, JournalEntry.phoneWithTickets(checkNumber, phone, tickets), () -> {
+            for (UUID ticket : tickets) ticketIndex.add(ticket, participant);
+        });
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * @param mutation меняет участника и возвращает откат этого изменения
+     */
+    private boolean update(String checkNumber, Function<Participant, Runnable> mutation, JournalEntry entry) {
+        Participant participant = participants.get(checkNumber);
+        return journal.append(seq -> {
+            Runnable undo = mutation.apply(participant);
+            Runnable unmark = markChanged(participant, seq);
+            return () -> {
+                undo.run();
+                unmark.run();
+            };
+        }, entry);
+    }
+
+    /**
+     * Вызывается журналом под его блокировкой, поэтому перестановки в {@link #changes} не пересекаются.
+     *
+     * @return откат перестановки, если запись в журнал не удалась
+     */
+    private Runnable markChanged(Participant participant, long seq) {
+        long previous = participant.getLastSeq();
+        if (previous != 0) changes.remove(previous, participant);
+        participant.setLastSeq(seq);
+        changes.put(seq, participant);
+        return () -> {
+            changes.remove(seq, participant);
+            if (participant.getLastSeq() == seq) {
+                participant.setLastSeq(previous);
+                if (previous != 0) changes.put(previous, participant);
+            }
+        };
+    }
 
-        return excelFile;
+    public static String joinTickets(Participant participant) {
+        return participant.getTickets().stream().map(UUID::toString).collect(Collectors.joining(", "));
     }
 
     public void assignRandomUUIDs() {
-        for (var entry : userData.entrySet()) {
-            Map<String, String> data = entry.getValue();
-            if (data.containsKey("fio") && data.containsKey("address") && data.containsKey("phone")) {
-                data.putIfAbsent("uid", UUID.randomUUID().toString());
-            }
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+        for (Participant participant : participants.values()) {
+            writes.add(issueTicket(participant, UUID.randomUUID(), true));
+        }
+        // Записи уходят в журнал пачками, ждём их все разом, а не по одной.
+        for (CompletableFuture<Boolean> write : writes) {
+            journal.await(write);
         }
     }
 
+    /**
+     * Выдаёт билет. В индекс он попадает потоком журнала после записи на диск, в порядке
+     * номеров записей: тот же порядок даёт и восстановление, см. {@link #indexTickets()}.
+     *
+     * @param onlyFirst выдать, только если у заполнившего анкету участника ещё нет билетов
+     */
+    private CompletableFuture<Boolean> issueTicket(Participant participant, UUID ticket, boolean onlyFirst) {
+        return journal.appendAsync(seq -> {
+            synchronized (participant) {
+                if (onlyFirst && (!participant.isComplete() || participant.getTicketCount() > 0)) return null;
+                participant.addTicket(ticket, seq);
+            }
+            Runnable unmark = markChanged(participant, seq);
+            return () -> {
+                participant.removeTicket(ticket);
+                unmark.run();
+            };
+        }, JournalEntry.ticketIssued(participant.getCheckNumber(), ticket), () -> ticketIndex.add(ticket, participant));
+    }
+
+    /**
+     * Число билетов: сумма чека, делённая на 7900 с округлением, но не меньше одного.
+     */
     public int getUUIDCount(String checkNumber) {
-        String amountStr = userData.getOrDefault(checkNumber, new HashMap<>()).get("paymentAmount");
-        if (amountStr == null || amountStr.isEmpty()) {
+        Participant participant = participants.get(checkNumber);
+        if (participant == null) {
             return 1;
         }
-        try {
-            double paymentAmount = Double.parseDouble(amountStr);
-            return Math.max(1, (int) Math.round(paymentAmount / 7900.0));
-        } catch (NumberFormatException e) {
-            return 1;
+        return Math.max(1, (int) Math.round(participant.getPaymentAmount() / 7900.0));
+    }
+
+    public void addUUID(String checkNumber, UUID uid) {
+        journal.await(issueTicket(participants.get(checkNumber), uid, false));
+    }
+
+    /**
+     * Приблизительный объём кучи, занятый реестром, в байтах.
+     */
+    public long estimateHeapFootprintBytes() {
+        long bytes = 0;
+        for (Participant participant : participants.values()) {
+            bytes += MAP_ENTRY_BYTES + participant.estimateFootprintBytes();
         }
+        return bytes;
     }
 
-    public void addUUID(String checkNumber, String uid) {
-        userData.computeIfAbsent(checkNumber, k -> new HashMap<>())
-                .merge("uid", uid, (oldVal, newVal) -> oldVal + ", " + newVal);
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("storage.participants", this, UserDataStorage::size).register(registry);
     }
 
-    public boolean isCheckProcessed(String checkNumber) {
-        return uniqueChecks.contains(checkNumber);
+    public long estimateBytesPerRecord() {
+        int count = participants.size();
+        return count == 0 ? 0 : estimateHeapFootprintBytes() / count;
     }
 
-    public void saveCheckNumber(String checkNumber) {
-        uniqueChecks.add(checkNumber);
+    private static final class IssuedTicket {
+        private final long issueSeq;
+        private final UUID ticket;
+        private final Participant owner;
+
+        private IssuedTicket(long issueSeq, UUID ticket, Participant owner) {
+            this.issueSeq = issueSeq;
+            this.ticket = ticket;
+            this.owner = owner;
+        }
     }
-}
\ No newline at end of file
+}
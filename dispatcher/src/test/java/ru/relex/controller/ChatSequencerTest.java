@@ -0,0 +1,73 @@
+package ru.relex.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChatSequencerTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void errorInTaskDoesNotStallTheChat() throws Exception {
+        ChatSequencer sequencer = new ChatSequencer(executor);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<Integer> order = new CopyOnWriteArrayList<>();
+
+        sequencer.submit(1, () -> await(release));
+        sequencer.submit(1, () -> {
+            throw new AssertionError("сбой обработчика");
+        });
+        sequencer.submit(1, () -> order.add(3));
+        sequencer.submit(1, () -> {
+            order.add(4);
+            done.countDown();
+        });
+        release.countDown();
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).containsExactly(3, 4);
+        awaitIdle(sequencer);
+    }
+
+    @Test
+    void rejectedChatIsNotLeftQueued() {
+        executor.shutdown();
+        ChatSequencer sequencer = new ChatSequencer(executor);
+
+        assertThatThrownBy(() -> sequencer.submit(1, () -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(sequencer.getActiveChats()).isZero();
+    }
+
+    private static void awaitIdle(ChatSequencer sequencer) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sequencer.getActiveChats() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(sequencer.getActiveChats()).isZero();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
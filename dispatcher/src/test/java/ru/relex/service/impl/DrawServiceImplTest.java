@@ -0,0 +1,58 @@
+package ru.relex.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.relex.model.DrawResult;
+import ru.relex.model.Participant;
+import ru.relex.storage.TicketIndex;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DrawServiceImplTest {
+
+    @Test
+    void sameSeedAndIndexGiveSameWinners() {
+        DrawResult result = new DrawServiceImpl(index(20), new SimpleMeterRegistry()).draw(5, "fixed-seed");
+
+        assertThat(result.getTicketCount()).isEqualTo(39);
+        assertThat(checkNumbers(result)).containsExactly("check-17", "check-12", "check-2", "check-5", "check-13");
+        assertThat(new DrawServiceImpl(index(20), new SimpleMeterRegistry()).draw(5, "fixed-seed").getWinners())
+                .extracting(DrawResult.Winner::getTicket)
+                .containsExactlyElementsOf(result.getWinners().stream()
+                        .map(DrawResult.Winner::getTicket).collect(Collectors.toList()));
+    }
+
+    @Test
+    void winnersAreCappedByDistinctOwners() {
+        DrawResult result = new DrawServiceImpl(index(3), new SimpleMeterRegistry()).draw(10, "fixed-seed");
+
+        assertThat(checkNumbers(result)).containsExactlyInAnyOrder("check-0", "check-1", "check-2");
+    }
+
+    /**
+     * У участника {@code i} от одного до трёх билетов, всего у первых двадцати — 39.
+     */
+    private static TicketIndex index(int participants) {
+        TicketIndex index = new TicketIndex();
+        long seq = 0;
+        for (int i = 0; i < participants; i++) {
+            Participant participant = new Participant("check-" + i, 7900);
+            for (int t = 0; t <= i % 3; t++) {
+                UUID ticket = new UUID(i, t);
+                participant.addTicket(ticket, ++seq);
+                index.add(ticket, participant);
+            }
+        }
+        return index;
+    }
+
+    private static List<String> checkNumbers(DrawResult result) {
+        return result.getWinners().stream()
+                .map(winner -> winner.getParticipant().getCheckNumber())
+                .collect(Collectors.toList());
+    }
+}
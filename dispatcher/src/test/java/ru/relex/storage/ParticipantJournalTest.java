@@ -0,0 +1,327 @@
+package ru.relex.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.relex.model.Participant;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ParticipantJournalTest {
+    @TempDir
+    Path dir;
+
+    private ParticipantJournal journal;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (journal != null) journal.close();
+    }
+
+    @Test
+    void replayDropsTornTail() throws Exception {
+        journal = open(new ParticipantJournal(), new ConcurrentHashMap<>());
+        register("1");
+        register("2");
+        journal.close();
+        journal = null;
+
+        // Сбой посреди записи: заголовок обещает 100 байт, на диске только 10.
+        ByteBuffer torn = ByteBuffer.allocate(18).putInt(100).putInt(12345);
+        Files.write(singleSegment(), torn.array(), StandardOpenOption.APPEND);
+
+        Map<String, Participant> recovered = new ConcurrentHashMap<>();
+        journal = open(new ParticipantJournal(), recovered);
+        assertThat(recovered).containsOnlyKeys("1", "2");
+    }
+
+    @Test
+    void replayRejectsCorruptionInTheMiddleOfSegment() throws Exception {
+        journal = open(new ParticipantJournal(), new ConcurrentHashMap<>());
+        register("1");
+        register("2");
+        register("3");
+        journal.close();
+        journal = null;
+
+        Path segment = singleSegment();
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[12] ^= 0x55; // данные первой записи, после неё ещё две
+        Files.write(segment, bytes);
+
+        assertThatThrownBy(() -> open(new ParticipantJournal(), new ConcurrentHashMap<>()))
+                .isInstanceOf(UncheckedIOException.class);
+    }
+
+    @Test
+    void failedWriteIsTruncatedAndUndone() throws Exception {
+        FailingJournal failing = new FailingJournal();
+        Map<String, Participant> participants = new ConcurrentHashMap<>();
+        journal = open(failing, participants);
+        register("1", participants);
+
+        failing.failNextWrite = true;
+        assertThatThrownBy(() -> register("2", participants)).isInstanceOf(UncheckedIOException.class);
+        assertThat(participants).containsOnlyKeys("1");
+
+        register("3", participants);
+        journal.close();
+        journal = null;
+
+        Map<String, Participant> recovered = new ConcurrentHashMap<>();
+        journal = open(new ParticipantJournal(), recovered);
+        assertThat(recovered).containsOnlyKeys("1", "3");
+    }
+
+    @Test
+    void snapshotDoesNotKeepMutationThatFailsAfterRotation() throws Exception {
+        FailingJournal failing = new FailingJournal();
+        Map<String, Participant> participants = new ConcurrentHashMap<>();
+        journal = open(failing, participants);
+        register("1", participants);
+
+        // Пока снимок обходит участников, другой поток регистрирует чек, запись которого упадёт.
+        failing.failNextWrite = true;
+        Thread[] writer = new Thread[1];
+        Collection<Participant> snapshotView = new AbstractCollection<>() {
+            @Override
+            public Iterator<Participant> iterator() {
+                writer[0] = new Thread(() -> {
+                    try {
+                        register("2", participants);
+                    } catch (UncheckedIOException expected) {
+                        // запись не попала на диск и откачена
+                    }
+                });
+                writer[0].start();
+                awaitRegistered(participants, "2");
+                return participants.values().iterator();
+            }
+
+            @Override
+            public int size() {
+                return participants.size();
+            }
+        };
+        journal.snapshot(snapshotView);
+        writer[0].join();
+        assertThat(participants).containsOnlyKeys("1");
+        journal.close();
+        journal = null;
+
+        Map<String, Participant> recovered = new ConcurrentHashMap<>();
+        journal = open(new ParticipantJournal(), recovered);
+        assertThat(recovered).containsOnlyKeys("1");
+    }
+
+    @Test
+    void truncatedSnapshotIsReportedAsCorrupt() throws Exception {
+        journal = open(new ParticipantJournal(), new ConcurrentHashMap<>());
+        register("1");
+        journal.snapshot(List.of(new Participant("1", 7900)));
+        journal.close();
+        journal = null;
+
+        Path snapshot;
+        try (Stream<Path> files = Files.list(dir)) {
+            snapshot = files.filter(path -> path.getFileName().toString().startsWith("snapshot-")).findFirst().orElseThrow();
+        }
+        // Заголовок снимка (16 байт) и обрывок длины первой записи.
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(bytes, 21));
+
+        assertThatThrownBy(() -> open(new ParticipantJournal(), new ConcurrentHashMap<>()))
+                .isInstanceOf(UncheckedIOException.class)
+                .hasRootCauseInstanceOf(IOException.class)
+                .getRootCause().hasMessageStartingWith("Повреждён снимок реестра");
+    }
+
+    /**
+     * Ждёт, пока мутация появится в памяти, но не дольше полсекунды: снимок, как и положено,
+     * может держать её до конца копирования.
+     */
+    private static void awaitRegistered(Map<String, Participant> participants, String checkNumber) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        while (!participants.containsKey(checkNumber) && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private void register(String checkNumber) {
+        register(checkNumber, new ConcurrentHashMap<>());
+    }
+
+    private void register(String checkNumber, Map<String, Participant> participants) {
+        Participant participant = new Participant(checkNumber, 7900);
+        boolean registered = journal.append(seq -> {
+            if (participants.putIfAbsent(checkNumber, participant) != null) return null;
+            return () -> participants.remove(checkNumber, participant);
+        }, JournalEntry.checkAccepted(checkNumber, 7900));
+        assertThat(registered).isTrue();
+    }
+
+    private ParticipantJournal open(ParticipantJournal journal, Map<String, Participant> participants) {
+        ReflectionTestUtils.setField(journal, "storageDir", dir.toString());
+        ReflectionTestUtils.setField(journal, "segmentMaxMb", 256L);
+        ReflectionTestUtils.setField(journal, "snapshotIntervalMinutes", 10L);
+        ReflectionTestUtils.setField(journal, "writeTimeoutMs", 5000L);
+        journal.open(participants);
+        return journal;
+    }
+
+    /**
+     * Единственный непустой сегмент: при каждом открытии журнал начинает новый.
+     */
+    private Path singleSegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = files.filter(path -> path.getFileName().toString().startsWith("journal-"))
+                    .filter(path -> path.toFile().length() > 0)
+                    .collect(Collectors.toList());
+            assertThat(segments).hasSize(1);
+            return segments.get(0);
+        }
+    }
+
+    /**
+     * Флаг сбоя общий для всех сегментов: снимок переключает журнал на новый.
+     */
+    private static class FailingJournal extends ParticipantJournal {
+        private volatile boolean failNextWrite;
+
+        @Override
+        FileChannel openChannel(Path path) throws IOException {
+            return new FailingChannel(super.openChannel(path), this);
+        }
+    }
+
+    /**
+     * Канал, который по команде дописывает половину буфера и падает, как при сбое диска.
+     */
+    private static class FailingChannel extends FileChannel {
+        private final FileChannel delegate;
+        private final FailingJournal journal;
+
+        private FailingChannel(FileChannel delegate, FailingJournal journal) {
+            this.delegate = delegate;
+            this.journal = journal;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (journal.failNextWrite) {
+                journal.failNextWrite = false;
+                ByteBuffer half = src.duplicate();
+                half.limit(src.position() + src.remaining() / 2);
+                delegate.write(half);
+                throw new IOException("Сбой диска");
+            }
+            return delegate.write(src);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
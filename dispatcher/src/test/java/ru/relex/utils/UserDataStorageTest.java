@@ -0,0 +1,120 @@
+package ru.relex.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.relex.model.Participant;
+import ru.relex.storage.ParticipantJournal;
+import ru.relex.storage.TicketIndex;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserDataStorageTest {
+    @TempDir
+    Path dir;
+
+    private final List<ParticipantJournal> journals = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (ParticipantJournal journal : journals) journal.close();
+    }
+
+    @Test
+    void restoredIndexKeepsIssueOrder() throws Exception {
+        TicketIndex live = new TicketIndex();
+        ParticipantJournal journal = journal();
+        UserDataStorage storage = new UserDataStorage(journal, live);
+        storage.init();
+        storage.registerCheck("b", 7900);
+        storage.registerCheck("a", 15800);
+        storage.addUUID("b", new UUID(2, 1));
+        storage.addUUID("a", new UUID(1, 1));
+        // Часть билетов восстановится из снимка, часть — из хвоста журнала.
+        journal.snapshot(storage.getParticipants());
+        storage.addUUID("b", new UUID(2, 2));
+        storage.addUUID("a", new UUID(1, 2));
+        journal.close();
+        journals.remove(journal);
+
+        TicketIndex restored = new TicketIndex();
+        new UserDataStorage(journal(), restored).init();
+
+        assertThat(tickets(restored)).containsExactly(
+                new UUID(2, 1), new UUID(1, 1), new UUID(2, 2), new UUID(1, 2));
+        assertThat(tickets(restored)).containsExactlyElementsOf(tickets(live));
+        assertThat(restored.read(TicketIndex.View::digest)).isEqualTo(live.read(TicketIndex.View::digest));
+    }
+
+    @Test
+    void participantsUpToSeqExcludeLaterChanges() {
+        UserDataStorage storage = new UserDataStorage(journal(), new TicketIndex());
+        storage.init();
+        storage.registerCheck("a", 7900);
+        storage.registerCheck("b", 7900);
+        long upTo = storage.currentSeq();
+        storage.registerCheck("c", 7900);
+        storage.setFio("a", "Иванов");
+
+        assertThat(storage.getParticipantsUpTo(upTo)).extracting(Participant::getCheckNumber).containsExactly("b");
+        assertThat(storage.getParticipantsUpTo(storage.currentSeq())).extracting(Participant::getCheckNumber)
+                .containsExactly("b", "c", "a");
+    }
+
+    @Test
+    void exportTicketsDoNotRaceWithProfileCompletion() throws Exception {
+        TicketIndex index = new TicketIndex();
+        UserDataStorage storage = new UserDataStorage(journal(), index);
+        storage.init();
+        int participants = 200;
+        for (int i = 0; i < participants; i++) {
+            String checkNumber = Integer.toString(i);
+            storage.registerCheck(checkNumber, 15800);
+            storage.setFio(checkNumber, "ФИО " + i);
+            storage.setAddress(checkNumber, "Адрес " + i);
+        }
+
+        // Шаг 2 анкеты в одном потоке, /export (выдача недостающих билетов) — в другом.
+        AtomicBoolean completing = new AtomicBoolean(true);
+        Thread export = new Thread(() -> {
+            while (completing.get()) storage.assignRandomUUIDs();
+        });
+        export.start();
+        for (int i = 0; i < participants; i++) {
+            String checkNumber = Integer.toString(i);
+            storage.completeProfile(checkNumber, "+7 701 " + i, List.of(UUID.randomUUID(), UUID.randomUUID()));
+        }
+        completing.set(false);
+        export.join();
+
+        for (Participant participant : storage.getParticipants()) {
+            assertThat(participant.getTicketCount()).as(participant.getCheckNumber()).isEqualTo(2);
+        }
+        assertThat(index.size()).isEqualTo(2 * participants);
+    }
+
+    private ParticipantJournal journal() {
+        ParticipantJournal journal = new ParticipantJournal();
+        ReflectionTestUtils.setField(journal, "storageDir", dir.toString());
+        ReflectionTestUtils.setField(journal, "segmentMaxMb", 256L);
+        ReflectionTestUtils.setField(journal, "snapshotIntervalMinutes", 10L);
+        ReflectionTestUtils.setField(journal, "writeTimeoutMs", 5000L);
+        journals.add(journal);
+        return journal;
+    }
+
+    private static List<UUID> tickets(TicketIndex index) {
+        return index.read(view -> {
+            List<UUID> tickets = new ArrayList<>();
+            for (int i = 0; i < view.size(); i++) tickets.add(view.ticketAt(i));
+            return tickets;
+        });
+    }
+}
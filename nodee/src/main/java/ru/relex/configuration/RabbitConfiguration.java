@@ -1,10 +1,10 @@
 package ru.relex.configuration;
 
 import org.springframework.amqp.core.Queue;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.relex.messaging.CompactMessageConverter;
 
 import static ru.relex.model.RabbitQueue.*;
 
@@ -12,7 +12,7 @@ import static ru.relex.model.RabbitQueue.*;
 public class RabbitConfiguration {
     @Bean
     public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+        return new CompactMessageConverter();
     }
 
 }
@@ -1,10 +1,13 @@
 package ru.relex.service;
 
-import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.relex.model.ReceiptJob;
+import ru.relex.model.UpdateEnvelope;
+
+import java.util.List;
 
 public interface ConsumerService {
-    void consumeTextMessageUpdates(Update update);
-    void consumeDocMessageUpdates(Update update);
-    void consumePhotoMessageUpdates(Update update);
+    void consumeTextMessageUpdates(List<UpdateEnvelope> updates);
+    void consumeDocMessageUpdates(ReceiptJob job);
+    void consumePhotoMessageUpdates(List<UpdateEnvelope> updates);
 
 }
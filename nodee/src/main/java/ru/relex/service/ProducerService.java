@@ -1,7 +1,10 @@
 package ru.relex.service;
 
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import ru.relex.model.ReceiptJobResult;
 
 public interface ProducerService {
     void produceAnswer(SendMessage sendMessage);
+
+    void produceReceiptResult(String replyTo, ReceiptJobResult result);
 }
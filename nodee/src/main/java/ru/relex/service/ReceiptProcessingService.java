@@ -0,0 +1,12 @@
+package ru.relex.service;
+
+import ru.relex.model.ReceiptJob;
+import ru.relex.model.ReceiptJobResult;
+
+public interface ReceiptProcessingService {
+    /**
+     * Скачивает и разбирает чек. Ошибки не бросаются, а возвращаются в {@code error}
+     * результата, чтобы сообщение не возвращалось в очередь бесконечно.
+     */
+    ReceiptJobResult process(ReceiptJob job);
+}
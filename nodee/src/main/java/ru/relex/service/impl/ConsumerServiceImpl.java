@@ -4,40 +4,50 @@ import lombok.extern.log4j.Log4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Service;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.relex.model.ReceiptJob;
+import ru.relex.model.UpdateEnvelope;
 import ru.relex.service.ConsumerService;
 import ru.relex.service.ProducerService;
+import ru.relex.service.ReceiptProcessingService;
 
+import java.util.List;
+
+import static ru.relex.messaging.BatchListenerConfiguration.BATCH_LISTENER_FACTORY;
 import static ru.relex.model.RabbitQueue.*;
 
 @Service
 @Log4j
 public class ConsumerServiceImpl implements ConsumerService {
     private final ProducerService producerService;
+    private final ReceiptProcessingService receiptProcessingService;
 
-    public ConsumerServiceImpl(ProducerService producerService) {
+    public ConsumerServiceImpl(ProducerService producerService, ReceiptProcessingService receiptProcessingService) {
         this.producerService = producerService;
+        this.receiptProcessingService = receiptProcessingService;
     }
 
     @Override
-    @RabbitListener(queues = TEXT_MESSAGE_UPDATE)
-    public void consumeTextMessageUpdates(Update update) {
-        log.debug("NODE: Text message is received");
-        var message =  update.getMessage();
-        var sendMessage = new SendMessage();
-        sendMessage.setChatId(message.getChatId().toString());
-        sendMessage.setText("Hello from NODE!");
-        producerService.produceAnswer(sendMessage);
+    @RabbitListener(queues = TEXT_MESSAGE_UPDATE, containerFactory = BATCH_LISTENER_FACTORY)
+    public void consumeTextMessageUpdates(List<UpdateEnvelope> updates) {
+        log.debug("NODE: Text messages are received: " + updates.size());
+        for (UpdateEnvelope update : updates) {
+            var sendMessage = new SendMessage();
+            sendMessage.setChatId(update.getChatId().toString());
+            sendMessage.setText("Hello from NODE!");
+            producerService.produceAnswer(sendMessage);
+        }
     }
     @Override
     @RabbitListener(queues = DOC_MESSAGE_UPDATE)
-    public void consumeDocMessageUpdates(Update update) {
-        log.debug("NODE: Doc message is received");
+    public void consumeDocMessageUpdates(ReceiptJob job) {
+        // Чеки не пакетируются: каждый занимает движок OCR, а prefetch=1 распределяет их по воркерам.
+        log.debug("NODE: Receipt job is received " + job.getCorrelationId());
+        producerService.produceReceiptResult(job.getReplyTo(), receiptProcessingService.process(job));
     }
 
     @Override
-    @RabbitListener(queues = PHOTO_MESSAGE_UPDATE)
-    public void consumePhotoMessageUpdates(Update update) {
-        log.debug("NODE: Photo message is received");
+    @RabbitListener(queues = PHOTO_MESSAGE_UPDATE, containerFactory = BATCH_LISTENER_FACTORY)
+    public void consumePhotoMessageUpdates(List<UpdateEnvelope> updates) {
+        log.debug("NODE: Photo messages are received: " + updates.size());
     }
 }
@@ -1,22 +1,39 @@
 package ru.relex.service.impl;
 
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import lombok.extern.log4j.Log4j;
 import org.springframework.stereotype.Service;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import ru.relex.messaging.BatchingPublisher;
+import ru.relex.model.AnswerEnvelope;
+import ru.relex.model.ReceiptJobResult;
 import ru.relex.service.ProducerService;
 
 import static ru.relex.model.RabbitQueue.ANSWER_MESSAGE;
 
 @Service
+@Log4j
 public class ProducerServiceImpl implements ProducerService {
-    private final RabbitTemplate rabbitTemplate;
+    private final BatchingPublisher batchingPublisher;
 
-    public ProducerServiceImpl(RabbitTemplate rabbitTemplate) {
-        this.rabbitTemplate = rabbitTemplate;
+    public ProducerServiceImpl(BatchingPublisher batchingPublisher) {
+        this.batchingPublisher = batchingPublisher;
     }
 
     @Override
     public void produceAnswer(SendMessage sendMessage) {
-        rabbitTemplate.convertAndSend(ANSWER_MESSAGE, sendMessage);
+        if (!batchingPublisher.publish(ANSWER_MESSAGE, AnswerEnvelope.of(sendMessage))) {
+            log.error("Буфер публикации переполнен, ответ в чат " + sendMessage.getChatId() + " не отправлен");
+        }
+    }
+
+    @Override
+    public void produceReceiptResult(String replyTo, ReceiptJobResult result) {
+        if (replyTo == null) {
+            log.error("В задании " + result.getCorrelationId() + " нет очереди ответа, результат не отправлен");
+            return;
+        }
+        if (!batchingPublisher.publish(replyTo, result)) {
+            log.error("Буфер публикации переполнен, результат " + result.getCorrelationId() + " не отправлен");
+        }
     }
 }
@@ -0,0 +1,97 @@
+package ru.relex.service.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.stereotype.Service;
+import ru.relex.download.ReceiptContent;
+import ru.relex.model.ReceiptExtractionResult;
+import ru.relex.model.ReceiptJob;
+import ru.relex.model.ReceiptJobResult;
+import ru.relex.service.ReceiptDownloader;
+import ru.relex.service.ReceiptExtractor;
+import ru.relex.service.ReceiptProcessingService;
+import ru.relex.storage.ReceiptDedupCache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор чека на воркере: тот же путь, что и в локальном конвейере диспетчера
+ * (кэш по file_unique_id, скачивание, кэш по SHA-256, текстовый слой или OCR),
+ * только одним вызовом в потоке слушателя. Параллельность задаётся числом
+ * потоков слушателя {@code spring.rabbitmq.listener.simple.concurrency}.
+ */
+@Service
+@Log4j
+public class ReceiptProcessingServiceImpl implements ReceiptProcessingService {
+    private final ReceiptDownloader receiptDownloader;
+    private final ReceiptExtractor receiptExtractor;
+    private final ReceiptDedupCache receiptDedupCache;
+    private final MeterRegistry meterRegistry;
+
+    public ReceiptProcessingServiceImpl(ReceiptDownloader receiptDownloader, ReceiptExtractor receiptExtractor,
+                                        ReceiptDedupCache receiptDedupCache, MeterRegistry meterRegistry) {
+        this.receiptDownloader = receiptDownloader;
+        this.receiptExtractor = receiptExtractor;
+        this.receiptDedupCache = receiptDedupCache;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public ReceiptJobResult process(ReceiptJob job) {
+        long startNanos = System.nanoTime();
+        try {
+            return toResult(job, extract(job, startNanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            record(startNanos, "failed");
+            return failed(job, e);
+        } catch (Exception e) {
+            log.error("Ошибка разбора чека " + job.getCorrelationId(), e);
+            record(startNanos, "failed");
+            return failed(job, e);
+        }
+    }
+
+    private ReceiptExtractionResult extract(ReceiptJob job, long startNanos) throws Exception {
+        ReceiptExtractionResult cached = receiptDedupCache.findByUniqueId(job.getFileUniqueId());
+        if (cached != null) {
+            record(startNanos, "cached");
+            return cached;
+        }
+
+        try (ReceiptContent content = receiptDownloader.download(job.getFileId(), job.getFileSize())) {
+            String sha256 = content.sha256();
+            cached = receiptDedupCache.findByHash(job.getFileUniqueId(), sha256);
+            if (cached != null) {
+                record(startNanos, "cached");
+                return cached;
+            }
+
+            ReceiptExtractionResult receipt;
+            try (PDDocument document = content.load()) {
+                receipt = receiptExtractor.extract(document);
+            }
+            receiptDedupCache.put(job.getFileUniqueId(), sha256, receipt);
+            record(startNanos, "extracted");
+            return receipt;
+        }
+    }
+
+    private void record(long startNanos, String result) {
+        Timer.builder("receipt.pipeline").tag("result", result)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static ReceiptJobResult toResult(ReceiptJob job, ReceiptExtractionResult receipt) {
+        return new ReceiptJobResult(job.getCorrelationId(), job.getChatId(), receipt.getPaymentAmount(),
+                receipt.getCheckNumber(), receipt.getPageIndex(), receipt.getConfidence(), receipt.getTier().name(), null);
+    }
+
+    private static ReceiptJobResult failed(ReceiptJob job, Exception e) {
+        String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        return new ReceiptJobResult(job.getCorrelationId(), job.getChatId(), null, null, 0, 0, null, error);
+    }
+}
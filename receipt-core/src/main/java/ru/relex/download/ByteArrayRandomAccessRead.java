@@ -0,0 +1,112 @@
+package ru.relex.download;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Чтение PDF прямо из начала буфера пула, без копирования в отдельный массив
+ * точного размера, как требует {@code PDDocument.load(byte[])}.
+ */
+class ByteArrayRandomAccessRead implements RandomAccessRead {
+    private final byte[] buffer;
+    private final int length;
+    private int position;
+    private boolean closed;
+
+    ByteArrayRandomAccessRead(byte[] buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkOpen();
+        return position < length ? buffer[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        if (position >= length) return -1;
+        int count = Math.min(len, length - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public void seek(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) throw new IOException("Invalid position " + newPosition);
+        position = (int) Math.min(newPosition, length);
+    }
+
+    @Override
+    public long length() throws IOException {
+        checkOpen();
+        return length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int peek() throws IOException {
+        int b = read();
+        if (b != -1) position--;
+        return b;
+    }
+
+    @Override
+    public void rewind(int bytes) throws IOException {
+        checkOpen();
+        position = Math.max(0, position - bytes);
+    }
+
+    @Override
+    public byte[] readFully(int len) throws IOException {
+        checkOpen();
+        if (length - position < len) throw new EOFException();
+        byte[] b = new byte[len];
+        System.arraycopy(buffer, position, b, 0, len);
+        position += len;
+        return b;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        checkOpen();
+        return position >= length;
+    }
+
+    @Override
+    public int available() throws IOException {
+        checkOpen();
+        return length - position;
+    }
+
+    @Override
+    public void close() {
+        // Буфер принадлежит пулу и возвращается туда владельцем ReceiptContent.
+        closed = true;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("RandomAccessRead already closed");
+    }
+}
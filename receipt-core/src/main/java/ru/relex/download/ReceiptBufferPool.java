@@ -0,0 +1,60 @@
+package ru.relex.download;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Переиспользуемые буферы для скачивания чеков в память. Размер буфера равен
+ * {@code receipt.in-memory-max-kb}: всё, что больше, уходит во временный файл.
+ * Пул хранит не больше {@code receipt.buffer-pool-size} свободных буферов,
+ * лишние при возврате отдаются сборщику мусора.
+ */
+@Component
+public class ReceiptBufferPool {
+    @Value("${receipt.in-memory-max-kb:2048}")
+    private int bufferKb;
+    @Value("${receipt.buffer-pool-size:16}")
+    private int poolSize;
+
+    private BlockingQueue<byte[]> free;
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        free = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    public byte[] acquire() {
+        byte[] buffer = free.poll();
+        if (buffer != null) {
+            reused.increment();
+            return buffer;
+        }
+        allocated.increment();
+        return new byte[getBufferSize()];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length == getBufferSize()) {
+            free.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferKb * 1024;
+    }
+
+    public long getReused() {
+        return reused.sum();
+    }
+
+    public long getAllocated() {
+        return allocated.sum();
+    }
+}
@@ -0,0 +1,102 @@
+package ru.relex.download;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Скачанный чек: либо начало буфера из пула, либо временный файл.
+ * {@link #close()} возвращает буфер в пул или удаляет файл, поэтому закрывать
+ * чек нужно после закрытия полученного из него {@link PDDocument}.
+ */
+public class ReceiptContent implements AutoCloseable {
+    private final ReceiptBufferPool bufferPool;
+    private byte[] buffer;
+    private final int length;
+    private final Path file;
+
+    ReceiptContent(ReceiptBufferPool bufferPool, byte[] buffer, int length) {
+        this.bufferPool = bufferPool;
+        this.buffer = buffer;
+        this.length = length;
+        this.file = null;
+    }
+
+    ReceiptContent(Path file) {
+        this.bufferPool = null;
+        this.buffer = null;
+        this.length = -1;
+        this.file = file;
+    }
+
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    public long size() throws IOException {
+        return isInMemory() ? length : Files.size(file);
+    }
+
+    /**
+     * SHA-256 содержимого в hex: по нему узнаются повторно присланные чеки.
+     */
+    public String sha256() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        if (isInMemory()) {
+            digest.update(buffer, 0, length);
+        } else {
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] chunk = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(chunk)) != -1) digest.update(chunk, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    /**
+     * Разбирает PDF. Из памяти документ читается без копирования буфера.
+     */
+    public PDDocument load() throws IOException {
+        if (!isInMemory()) {
+            return PDDocument.load(file.toFile(), MemoryUsageSetting.setupMainMemoryOnly());
+        }
+        if (buffer == null) {
+            throw new IllegalStateException("Чек уже закрыт");
+        }
+        RandomAccessRead source = new ByteArrayRandomAccessRead(buffer, length);
+        PDFParser parser = new PDFParser(source);
+        try {
+            parser.parse();
+            return parser.getPDDocument();
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isInMemory()) {
+            bufferPool.release(buffer);
+            buffer = null;
+        } else {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ru.relex.download;
+
+/**
+ * Документ не принят по метаданным Telegram, ещё до скачивания.
+ * Сообщение исключения показывается пользователю.
+ */
+public class ReceiptRejectedException extends RuntimeException {
+    public ReceiptRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,192 @@
+package ru.relex.download;
+
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Складывает байты чека в буфер из {@link ReceiptBufferPool}, а если он не помещается
+ * (или Telegram заранее сообщил больший размер) — во временный файл в
+ * {@code receipt.temp-dir}. Каталог принадлежит боту: при запуске из него
+ * удаляются файлы, оставшиеся после аварийной остановки.
+ */
+@Component
+@Log4j
+public class ReceiptSpooler {
+    private static final String TEMP_SUFFIX = ".pdf.part";
+
+    @Value("${receipt.temp-dir:}")
+    private String tempDir;
+
+    private final ReceiptBufferPool bufferPool;
+    private Path dir;
+    private final LongAdder inMemory = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+
+    public ReceiptSpooler(ReceiptBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        dir = (tempDir.isEmpty() ? Paths.get(System.getProperty("java.io.tmpdir"), "receipts") : Paths.get(tempDir))
+                .toAbsolutePath();
+        Files.createDirectories(dir);
+        int removed = 0;
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(dir, "*" + TEMP_SUFFIX)) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+                removed++;
+            }
+        }
+        if (removed > 0) log.info("Удалено временных файлов чеков: " + removed);
+    }
+
+    /**
+     * Открывает приёмник для очередного чека. Данные подаются кусками через
+     * {@link ReceiptSink#write}, по окончании вызывается {@link ReceiptSink#finish()}.
+     *
+     * @param expectedSize размер из метаданных Telegram или {@code null}
+     * @param maxSize      предел; чек длиннее него не принимается
+     */
+    public ReceiptSink open(Long expectedSize, long maxSize) {
+        boolean toFile = expectedSize != null && expectedSize > bufferPool.getBufferSize();
+        return new ReceiptSink(toFile ? null : bufferPool.acquire(), maxSize);
+    }
+
+    /**
+     * Принимает байты одного чека. Вызовы write приходят из потоков HTTP-клиента,
+     * а abort может прийти из другого потока по таймауту, поэтому методы синхронизированы.
+     */
+    public class ReceiptSink {
+        private final long maxSize;
+        private byte[] buffer;
+        private int length;
+        private Path file;
+        private OutputStream out;
+        private long total;
+        private boolean overflow;
+        private IOException failure;
+        private boolean closed;
+
+        private ReceiptSink(byte[] buffer, long maxSize) {
+            this.buffer = buffer;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Ошибки записи не бросаются сразу (вызывающий поток принадлежит HTTP-клиенту),
+         * а запоминаются: их сообщают {@link #getError()} и {@link #finish()}.
+         *
+         * @return {@code false}, если приём надо прекратить: чек превысил предел, запись
+         * не удалась или приём прерван. Дальше качать тело незачем, его можно отменить.
+         */
+        public synchronized boolean write(byte[] chunk) {
+            if (closed || overflow || failure != null) return false;
+            total += chunk.length;
+            if (total > maxSize) {
+                // Остаток не сохраняем.
+                overflow = true;
+                return false;
+            }
+            if (buffer != null && length + chunk.length <= buffer.length) {
+                System.arraycopy(chunk, 0, buffer, length, chunk.length);
+                length += chunk.length;
+                return true;
+            }
+            try {
+                if (out == null) {
+                    // Чек не поместился в буфер (или Telegram заранее сообщил больший размер).
+                    file = Files.createTempFile(dir, "receipt-", TEMP_SUFFIX);
+                    out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+                    if (buffer != null) {
+                        out.write(buffer, 0, length);
+                        bufferPool.release(buffer);
+                        buffer = null;
+                    }
+                }
+                out.write(chunk);
+                return true;
+            } catch (IOException e) {
+                failure = e;
+                return false;
+            }
+        }
+
+        /**
+         * @return причина, по которой приёмник отказался от данных, или {@code null}.
+         * Такую ошибку повторная загрузка не исправит.
+         */
+        public synchronized IOException getError() {
+            if (overflow) return new IOException("Чек больше допустимых " + maxSize + " байт");
+            return failure;
+        }
+
+        public synchronized ReceiptContent finish() throws IOException {
+            if (closed) throw new IOException("Приём чека уже прерван");
+            IOException error = getError();
+            if (error != null) {
+                abort();
+                throw error;
+            }
+            closed = true;
+            if (out == null) {
+                if (buffer == null) buffer = bufferPool.acquire();
+                inMemory.increment();
+                ReceiptContent content = new ReceiptContent(bufferPool, buffer, length);
+                buffer = null;
+                return content;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            spilled.increment();
+            return new ReceiptContent(file);
+        }
+
+        /**
+         * Освобождает буфер и удаляет недописанный файл. Повторный вызов ничего не делает.
+         */
+        public synchronized void abort() {
+            if (closed) return;
+            closed = true;
+            bufferPool.release(buffer);
+            buffer = null;
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.warn("Не удалось закрыть временный файл чека " + file, e);
+                }
+            }
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Не удалось удалить временный файл чека " + file, e);
+                }
+            }
+        }
+    }
+
+    public long getInMemoryCount() {
+        return inMemory.sum();
+    }
+
+    public long getSpilledCount() {
+        return spilled.sum();
+    }
+}
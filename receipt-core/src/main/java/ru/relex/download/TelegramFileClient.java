@@ -0,0 +1,387 @@
+package ru.relex.download;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Единственный клиент для скачивания файлов из Telegram. Один {@link HttpClient}
+ * держит keep-alive соединения к API, так что чеки не открывают по новому
+ * TLS-соединению. Каждая попытка ограничена общим сроком {@code telegram.download.timeout-ms}:
+ * тело читается асинхронно, а поток конвейера лишь ждёт результат с таймаутом,
+ * поэтому зависшая загрузка не занимает его навсегда.
+ * <p>
+ * Сетевые ошибки, таймауты, 5xx и 429 повторяются до {@code telegram.download.max-attempts}
+ * раз с экспоненциальной задержкой и случайным разбросом; для 429 выдерживается retry_after.
+ * Число одновременных загрузок ограничено {@code telegram.download.max-concurrent}.
+ */
+@Component
+@Log4j
+public class TelegramFileClient {
+    /** Верхние границы корзин гистограммы задержек, мс; последняя корзина — всё, что дольше. */
+    private static final long[] LATENCY_BUCKETS_MS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    @Value("${telegram.api.base-url:https://api.telegram.org}")
+    private String baseUrl;
+    @Value("${bot.token}")
+    private String botToken;
+    @Value("${telegram.download.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+    @Value("${telegram.download.timeout-ms:30000}")
+    private long timeoutMs;
+    @Value("${telegram.download.max-attempts:3}")
+    private int maxAttempts;
+    @Value("${telegram.download.retry-base-delay-ms:300}")
+    private long retryBaseDelayMs;
+    @Value("${telegram.download.max-concurrent:8}")
+    private int maxConcurrent;
+
+    private final ObjectMapper objectMapper;
+    private final ReceiptSpooler receiptSpooler;
+
+    private ExecutorService httpExecutor;
+    private HttpClient httpClient;
+    private Semaphore permits;
+
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder transferNanos = new LongAdder();
+    private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS_MS.length + 1];
+    private final Timer requestTimer;
+
+    public TelegramFileClient(ObjectMapper objectMapper, ReceiptSpooler receiptSpooler, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.receiptSpooler = receiptSpooler;
+        for (int i = 0; i < latencyBuckets.length; i++) latencyBuckets[i] = new LongAdder();
+        this.requestTimer = bindMetrics(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        httpExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "telegram-http-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(httpExecutor)
+                .build();
+        permits = new Semaphore(maxConcurrent);
+        log.info("Клиент файлов Telegram: " + baseUrl + ", до " + maxConcurrent + " загрузок одновременно");
+    }
+
+    /**
+     * Скачивает файл по file_id: getFile, затем сами байты в приёмник чека.
+     *
+     * @param expectedSize размер из метаданных Telegram или {@code null}
+     * @param maxSize      предел размера файла
+     */
+    public ReceiptContent download(String fileId, Long expectedSize, long maxSize) throws IOException, InterruptedException {
+        String filePath = getFilePath(fileId);
+        URI uri = URI.create(baseUrl + "/file/bot" + botToken + "/" + filePath);
+
+        for (int attempt = 1; ; attempt++) {
+            ReceiptSpooler.ReceiptSink sink = receiptSpooler.open(expectedSize, maxSize);
+            HttpResponse<Void> response;
+            try {
+                response = send(HttpRequest.newBuilder(uri).GET().build(),
+                        HttpResponse.BodySubscribers.ofByteArrayConsumer(chunk -> chunk.ifPresent(data -> {
+                            bytes.add(data.length);
+                            if (!sink.write(data)) {
+                                // Приёмник отказался (например, чек больше предела): тело отменяется сразу.
+                                IOException error = sink.getError();
+                                throw new UncheckedIOException(error != null ? error : new IOException("Приём чека прерван"));
+                            }
+                        })));
+            } catch (IOException e) {
+                // Отказ приёмника не повторяем: файл от этого не изменится.
+                IOException refused = sink.getError();
+                sink.abort();
+                if (refused != null) {
+                    failures.increment();
+                    throw refused;
+                }
+                retry(e, true, attempt, 0);
+                continue;
+            } catch (InterruptedException | RuntimeException e) {
+                sink.abort();
+                throw e;
+            }
+
+            if (response.statusCode() == 200) {
+                // Ошибку finish() (например, превышение размера) не повторяем: файл от этого не изменится.
+                ReceiptContent content = sink.finish();
+                downloads.increment();
+                return content;
+            }
+            sink.abort();
+            retry(new IOException("Telegram вернул HTTP " + response.statusCode() + " при скачивании файла"),
+                    isRetryable(response.statusCode()), attempt,
+                    response.headers().firstValueAsLong("Retry-After").orElse(0) * 1000);
+        }
+    }
+
+    /**
+     * Метод Bot API getFile: путь к файлу на серверах Telegram.
+     */
+    public String getFilePath(String fileId) throws IOException, InterruptedException {
+        URI uri = URI.create(baseUrl + "/bot" + botToken + "/getFile?file_id="
+                + URLEncoder.encode(fileId, StandardCharsets.UTF_8));
+
+        for (int attempt = 1; ; attempt++) {
+            IOException error;
+            boolean retryable = true;
+            long retryAfterMs = 0;
+            try {
+                HttpResponse<byte[]> response = send(HttpRequest.newBuilder(uri).GET().build(),
+                        HttpResponse.BodySubscribers.ofByteArray());
+                JsonNode body = objectMapper.readTree(response.body());
+                if (response.statusCode() == 200 && body.path("ok").asBoolean()) {
+                    return body.path("result").path("file_path").asText();
+                }
+                error = new IOException("getFile: HTTP " + response.statusCode() + " " + body.path("description").asText());
+                retryable = isRetryable(response.statusCode());
+                retryAfterMs = body.path("parameters").path("retry_after").asLong(0) * 1000;
+            } catch (IOException e) {
+                error = e;
+            }
+            retry(error, retryable, attempt, retryAfterMs);
+        }
+    }
+
+    /**
+     * Бросает ошибку, если повторять нельзя или попытки кончились, иначе выжидает перед повтором.
+     */
+    private void retry(IOException error, boolean retryable, int attempt, long retryAfterMs)
+            throws IOException, InterruptedException {
+        if (!retryable || attempt >= maxAttempts) {
+            failures.increment();
+            throw error;
+        }
+        log.warn(error.getMessage() + ", попытка " + attempt + " из " + maxAttempts);
+        retries.increment();
+        long delay = retryBaseDelayMs << Math.min(attempt - 1, 10);
+        // Разброс 50-150%, чтобы повторы разных чеков не приходили к API одновременно.
+        delay = (long) (delay * (0.5 + ThreadLocalRandom.current().nextDouble()));
+        Thread.sleep(Math.max(delay, retryAfterMs));
+    }
+
+    /**
+     * Одна попытка с общим сроком на соединение, заголовки и всё тело ответа.
+     * <p>
+     * Разрешение на загрузку возвращается, когда обмен действительно закончился, а не когда
+     * вызывающий перестал ждать. По таймауту или прерыванию приёмник тела отключается раньше
+     * выхода из метода: после этого он не получит ни одного куска, и вызывающий может сразу
+     * освободить буфер, в который писал приёмник.
+     */
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodySubscriber<T> subscriber)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Слишком много одновременных загрузок, ожидание превысило " + timeoutMs + " мс");
+        }
+        long start = System.nanoTime();
+        AbortableSubscriber<T> body = new AbortableSubscriber<>(subscriber);
+        CompletableFuture<HttpResponse<T>> future;
+        try {
+            future = httpClient.sendAsync(request, responseInfo -> body);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        future.whenComplete((response, error) -> permits.release());
+        try {
+            HttpResponse<T> response = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            record(start, response);
+            return response;
+        } catch (TimeoutException e) {
+            IOException error = new IOException("Загрузка не завершилась за " + timeoutMs + " мс: "
+                    + request.uri().getPath().replace(botToken, "***"));
+            body.abort(error);
+            future.cancel(true);
+            throw error;
+        } catch (InterruptedException e) {
+            body.abort(new IOException("Загрузка прервана"));
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private void record(long startNanos, HttpResponse<?> response) {
+        long nanos = System.nanoTime() - startNanos;
+        transferNanos.add(nanos);
+        if (response.body() instanceof byte[]) {
+            // Тело файла считается по кускам в приёмнике, здесь только ответы API.
+            bytes.add(((byte[]) response.body()).length);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MS.length && millis > LATENCY_BUCKETS_MS[bucket]) bucket++;
+        latencyBuckets[bucket].increment();
+        requestTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer bindMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("telegram.download.files", this, TelegramFileClient::getDownloads).register(registry);
+        FunctionCounter.builder("telegram.download.failures", this, TelegramFileClient::getFailures).register(registry);
+        FunctionCounter.builder("telegram.download.retries", this, TelegramFileClient::getRetries).register(registry);
+        FunctionCounter.builder("telegram.download.bytes", this, TelegramFileClient::getBytes)
+                .baseUnit("bytes").register(registry);
+        return Timer.builder("telegram.download.request").description("Запросы к Bot API за файлами чеков")
+                .serviceLevelObjectives(Arrays.stream(LATENCY_BUCKETS_MS).mapToObj(Duration::ofMillis).toArray(Duration[]::new))
+                .register(registry);
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    public long getDownloads() {
+        return downloads.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Средняя скорость передачи за всё время работы.
+     */
+    public double getBytesPerSecond() {
+        long nanos = transferNanos.sum();
+        return nanos == 0 ? 0 : bytes.sum() * 1e9 / nanos;
+    }
+
+    public long[] getLatencyBucketBoundsMillis() {
+        return LATENCY_BUCKETS_MS.clone();
+    }
+
+    /**
+     * Число запросов по корзинам {@link #getLatencyBucketBoundsMillis()}, последний элемент — дольше всех границ.
+     */
+    public long[] getLatencyHistogram() {
+        long[] counts = new long[latencyBuckets.length];
+        for (int i = 0; i < counts.length; i++) counts[i] = latencyBuckets[i].sum();
+        return counts;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        httpExecutor.shutdownNow();
+    }
+
+    /**
+     * Приёмник тела, который можно отключить: после {@link #abort} исходный приёмник больше
+     * не вызывается, подписка отменяется, а тело ответа завершается ошибкой, так что и
+     * будущее запроса завершается, не дожидаясь конца передачи. Исходный приёмник
+     * отключает себя сам, бросив из {@code onNext} {@link UncheckedIOException}.
+     */
+    private static final class AbortableSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final CompletableFuture<T> body = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+        private boolean aborted;
+
+        private AbortableSubscriber(HttpResponse.BodySubscriber<T> delegate) {
+            this.delegate = delegate;
+            delegate.getBody().whenComplete((value, error) -> {
+                if (error == null) body.complete(value);
+                else body.completeExceptionally(error);
+            });
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return body;
+        }
+
+        @Override
+        public synchronized void onSubscribe(Flow.Subscription subscription) {
+            if (aborted) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public synchronized void onNext(List<ByteBuffer> item) {
+            if (aborted) return;
+            try {
+                delegate.onNext(item);
+            } catch (UncheckedIOException e) {
+                abort(e.getCause());
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            if (!aborted) delegate.onError(throwable);
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            if (!aborted) delegate.onComplete();
+        }
+
+        /**
+         * Дожидается куска, который приёмник обрабатывает сейчас, и отключает его.
+         */
+        private synchronized void abort(IOException reason) {
+            if (aborted) return;
+            aborted = true;
+            if (subscription != null) subscription.cancel();
+            body.completeExceptionally(reason);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ru.relex.model;
+
+/**
+ * Каким способом был получен текст чека.
+ */
+public enum ExtractionTier {
+    /** Текстовый слой PDF, без рендеринга и OCR. */
+    TEXT_LAYER,
+    /** Рендеринг страниц и распознавание Tesseract. */
+    OCR,
+    /** Результат ранее обработанного такого же файла, без скачивания или разбора. */
+    CACHE
+}
@@ -0,0 +1,32 @@
+package ru.relex.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Результат разбора чека: сумма, номер чека, страница, на которой разбор завершился,
+ * уверенность распознавания (0-100) и способ, которым был получен текст.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ReceiptExtractionResult {
+    private final Double paymentAmount;
+    private final String checkNumber;
+    private final int pageIndex;
+    private final float confidence;
+    private final ExtractionTier tier;
+
+    public boolean hasPaymentAmount() {
+        return paymentAmount != null;
+    }
+
+    public boolean hasCheckNumber() {
+        return checkNumber != null;
+    }
+
+    public boolean isComplete() {
+        return hasPaymentAmount() && hasCheckNumber();
+    }
+}
@@ -0,0 +1,140 @@
+package ru.relex.ocr;
+
+import com.sun.jna.Pointer;
+import net.sourceforge.tess4j.ITessAPI;
+import net.sourceforge.tess4j.ITessAPI.TessBaseAPI;
+import net.sourceforge.tess4j.ITessAPI.TessPageIterator;
+import net.sourceforge.tess4j.ITessAPI.TessPageIteratorLevel;
+import net.sourceforge.tess4j.ITessAPI.TessResultIterator;
+import net.sourceforge.tess4j.TessAPI1;
+import net.sourceforge.tess4j.util.ImageIOHelper;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Один проинициализированный экземпляр Tesseract. В отличие от {@code new Tesseract()},
+ * tessdata загружается один раз при создании, а не на каждое распознавание.
+ * Экземпляр не потокобезопасен: его выдаёт {@link OcrEnginePool} одному потоку за раз.
+ */
+public class OcrEngine implements AutoCloseable {
+    private final TessBaseAPI handle;
+
+    OcrEngine(String tessdataPath, String languages) {
+        handle = TessAPI1.TessBaseAPICreate();
+        if (TessAPI1.TessBaseAPIInit3(handle, tessdataPath, languages) != 0) {
+            TessAPI1.TessBaseAPIDelete(handle);
+            throw new OcrUnavailableException("Не удалось инициализировать Tesseract: " + tessdataPath + " (" + languages + ")");
+        }
+    }
+
+    public OcrResult recognize(BufferedImage image, int dpi) {
+        setImage(image, dpi);
+        Pointer textPointer = TessAPI1.TessBaseAPIGetUTF8Text(handle);
+        try {
+            String text = textPointer == null ? "" : textPointer.getString(0, StandardCharsets.UTF_8.name());
+            return new OcrResult(text, TessAPI1.TessBaseAPIMeanTextConf(handle));
+        } finally {
+            if (textPointer != null) TessAPI1.TessDeleteText(textPointer);
+            TessAPI1.TessBaseAPIClear(handle);
+        }
+    }
+
+    /**
+     * Распознаёт страницу по словам: текст строится из слов (пробел между словами,
+     * перевод строки между строками), у каждого слова есть рамка и уверенность.
+     */
+    public OcrPage recognizeWords(BufferedImage image, int dpi) {
+        setImage(image, dpi);
+        try {
+            TessAPI1.TessBaseAPIRecognize(handle, null);
+            StringBuilder text = new StringBuilder();
+            List<OcrWord> words = new ArrayList<>();
+            TessResultIterator iterator = TessAPI1.TessBaseAPIGetIterator(handle);
+            if (iterator != null) {
+                try {
+                    collectWords(iterator, text, words);
+                } finally {
+                    TessAPI1.TessResultIteratorDelete(iterator);
+                }
+            }
+            return new OcrPage(text.toString(), words, TessAPI1.TessBaseAPIMeanTextConf(handle));
+        } finally {
+            TessAPI1.TessBaseAPIClear(handle);
+        }
+    }
+
+    private static void collectWords(TessResultIterator iterator, StringBuilder text, List<OcrWord> words) {
+        TessPageIterator pageIterator = TessAPI1.TessResultIteratorGetPageIterator(iterator);
+        IntBuffer left = IntBuffer.allocate(1);
+        IntBuffer top = IntBuffer.allocate(1);
+        IntBuffer right = IntBuffer.allocate(1);
+        IntBuffer bottom = IntBuffer.allocate(1);
+        do {
+            Pointer wordPointer = TessAPI1.TessResultIteratorGetUTF8Text(iterator, TessPageIteratorLevel.RIL_WORD);
+            if (wordPointer == null) continue;
+            String word;
+            try {
+                word = wordPointer.getString(0, StandardCharsets.UTF_8.name());
+            } finally {
+                TessAPI1.TessDeleteText(wordPointer);
+            }
+            if (text.length() > 0) {
+                boolean newLine = TessAPI1.TessPageIteratorIsAtBeginningOf(pageIterator, TessPageIteratorLevel.RIL_TEXTLINE) == ITessAPI.TRUE;
+                text.append(newLine ? '\n' : ' ');
+            }
+            int from = text.length();
+            text.append(word);
+            TessAPI1.TessPageIteratorBoundingBox(pageIterator, TessPageIteratorLevel.RIL_WORD, left, top, right, bottom);
+            Rectangle bounds = new Rectangle(left.get(0), top.get(0), right.get(0) - left.get(0), bottom.get(0) - top.get(0));
+            words.add(new OcrWord(from, text.length(), bounds,
+                    TessAPI1.TessResultIteratorConfidence(iterator, TessPageIteratorLevel.RIL_WORD)));
+        } while (TessAPI1.TessResultIteratorNext(iterator, TessPageIteratorLevel.RIL_WORD) == ITessAPI.TRUE);
+    }
+
+    /**
+     * Распознаёт вырезку с одним полем. Настройки профиля действуют только на этот вызов:
+     * движок возвращается в пул с обычными настройками.
+     */
+    public OcrResult recognizeField(BufferedImage image, int dpi, OcrProfile profile) {
+        int pageSegMode = TessAPI1.TessBaseAPIGetPageSegMode(handle);
+        TessAPI1.TessBaseAPISetPageSegMode(handle, profile.getPageSegMode());
+        TessAPI1.TessBaseAPISetVariable(handle, "tessedit_char_whitelist", profile.getWhitelist());
+        try {
+            return recognize(image, dpi);
+        } finally {
+            TessAPI1.TessBaseAPISetVariable(handle, "tessedit_char_whitelist", "");
+            TessAPI1.TessBaseAPISetPageSegMode(handle, pageSegMode);
+        }
+    }
+
+    private void setImage(BufferedImage image, int dpi) {
+        BufferedImage gray = toGray(image);
+        ByteBuffer data = ImageIOHelper.convertImageData(gray);
+        TessAPI1.TessBaseAPISetImage(handle, data, gray.getWidth(), gray.getHeight(), 1, gray.getWidth());
+        TessAPI1.TessBaseAPISetSourceResolution(handle, dpi);
+    }
+
+    private static BufferedImage toGray(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = gray.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return gray;
+    }
+
+    @Override
+    public void close() {
+        TessAPI1.TessBaseAPIEnd(handle);
+        TessAPI1.TessBaseAPIDelete(handle);
+    }
+}
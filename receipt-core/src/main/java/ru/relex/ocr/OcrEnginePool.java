@@ -0,0 +1,184 @@
+package ru.relex.ocr;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Пул заранее проинициализированных движков Tesseract. Размер пула ограничивает
+ * число одновременных распознаваний, чтобы при наплыве чеков OCR не отнимал
+ * процессор у остальной работы бота.
+ * <p>
+ * Бин ленивый: процесс, который сам чеки не распознаёт (диспетчер в режиме
+ * {@code receipt.processing.mode=remote}), Tesseract не загружает.
+ */
+@Component
+@Lazy
+@Log4j
+public class OcrEnginePool {
+    @Value("${ocr.pool.size:0}")
+    private int configuredSize;
+    @Value("${ocr.tessdata.path:C:\\Program Files\\Tesseract-OCR\\tessdata}")
+    private String tessdataPath;
+    @Value("${ocr.languages:rus+eng}")
+    private String languages;
+    @Value("${ocr.acquire-timeout-ms:30000}")
+    private long acquireTimeoutMs;
+
+    private int size;
+    private BlockingQueue<OcrEngine> idleEngines;
+    private final List<OcrEngine> engines = new CopyOnWriteArrayList<>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final MeterRegistry meterRegistry;
+
+    public OcrEnginePool(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        size = configuredSize > 0 ? configuredSize : Runtime.getRuntime().availableProcessors();
+        idleEngines = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            OcrEngine engine = createEngine();
+            if (engine == null) break;
+            idleEngines.offer(engine);
+        }
+        log.info("Пул OCR: создано " + created.get() + " из " + size + " движков (" + languages + ", " + tessdataPath + ")");
+        bindMetrics();
+    }
+
+    /**
+     * Метрики регистрируются при создании пула, а не через MeterBinder, чтобы ленивый бин
+     * не создавался только ради них.
+     */
+    private void bindMetrics() {
+        Gauge.builder("ocr.pool.engines", this, OcrEnginePool::getSize).register(meterRegistry);
+        Gauge.builder("ocr.pool.in.use", this, OcrEnginePool::getInUse).register(meterRegistry);
+        Gauge.builder("ocr.pool.waiting", this, OcrEnginePool::getWaiting).register(meterRegistry);
+        FunctionCounter.builder("ocr.pool.timeouts", this, OcrEnginePool::getTimeouts).register(meterRegistry);
+        FunctionTimer.builder("ocr.pool.wait", this, OcrEnginePool::getAcquisitions,
+                pool -> pool.totalWaitNanos.sum(), TimeUnit.NANOSECONDS).register(meterRegistry);
+    }
+
+    /**
+     * Выдаёт свободный движок, ожидая не дольше {@code ocr.acquire-timeout-ms}.
+     * Движок обязательно вернуть через {@link #release(OcrEngine)}.
+     */
+    public OcrEngine acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            OcrEngine engine = idleEngines.poll();
+            if (engine == null) {
+                engine = createEngine();
+            }
+            if (engine == null) {
+                if (created.get() == 0) {
+                    throw new OcrUnavailableException("Tesseract недоступен: ни один движок не удалось инициализировать");
+                }
+                engine = idleEngines.poll(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+            }
+            if (engine == null) {
+                timeouts.increment();
+                throw new OcrUnavailableException("Нет свободного движка OCR за " + acquireTimeoutMs + " мс");
+            }
+            inUse.incrementAndGet();
+            recordWait(System.nanoTime() - start);
+            return engine;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public void release(OcrEngine engine) {
+        inUse.decrementAndGet();
+        idleEngines.offer(engine);
+    }
+
+    /**
+     * Дозаполняет пул до {@link #size}, если при старте создать все движки не получилось.
+     */
+    private OcrEngine createEngine() {
+        int current;
+        do {
+            current = created.get();
+            if (current >= size) return null;
+        } while (!created.compareAndSet(current, current + 1));
+
+        try {
+            OcrEngine engine = new OcrEngine(tessdataPath, languages);
+            engines.add(engine);
+            return engine;
+        } catch (RuntimeException | LinkageError e) {
+            created.decrementAndGet();
+            log.error("Не удалось создать движок OCR", e);
+            return null;
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        acquisitions.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = acquisitions.sum();
+        return count == 0 ? 0 : totalWaitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (OcrEngine engine : engines) {
+            engine.close();
+        }
+        engines.clear();
+    }
+}
@@ -0,0 +1,44 @@
+package ru.relex.ocr;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Текст страницы вместе с рамками слов: по участку текста можно найти область
+ * на изображении, откуда он был распознан.
+ */
+@Getter
+@AllArgsConstructor
+public class OcrPage {
+    private final String text;
+    private final List<OcrWord> words;
+    /** Средняя уверенность Tesseract по странице, 0-100. */
+    private final int confidence;
+
+    /**
+     * @return рамка слов, пересекающих участок текста, или {@code null}, если таких слов нет
+     */
+    public Rectangle boundsOf(int from, int to) {
+        Rectangle bounds = null;
+        for (OcrWord word : words) {
+            if (word.getTo() <= from || word.getFrom() >= to) continue;
+            bounds = bounds == null ? new Rectangle(word.getBounds()) : bounds.union(word.getBounds());
+        }
+        return bounds;
+    }
+
+    /**
+     * @return наименьшая уверенность среди слов участка, 0 если слов нет
+     */
+    public float confidenceOf(int from, int to) {
+        float confidence = Float.MAX_VALUE;
+        for (OcrWord word : words) {
+            if (word.getTo() <= from || word.getFrom() >= to) continue;
+            confidence = Math.min(confidence, word.getConfidence());
+        }
+        return confidence == Float.MAX_VALUE ? 0 : confidence;
+    }
+}
@@ -0,0 +1,30 @@
+package ru.relex.ocr;
+
+import net.sourceforge.tess4j.ITessAPI.TessPageSegMode;
+
+/**
+ * Настройки Tesseract для распознавания одного поля чека, вырезанного из страницы:
+ * одна строка и только те символы, которые могут быть в значении.
+ */
+public enum OcrProfile {
+    /** Сумма: цифры, разделители разрядов и копеек. */
+    AMOUNT("0123456789 ,.", TessPageSegMode.PSM_SINGLE_LINE),
+    /** Номер чека: цифры и латинский префикс вроде «QR». */
+    CHECK_NUMBER("0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ", TessPageSegMode.PSM_SINGLE_LINE);
+
+    private final String whitelist;
+    private final int pageSegMode;
+
+    OcrProfile(String whitelist, int pageSegMode) {
+        this.whitelist = whitelist;
+        this.pageSegMode = pageSegMode;
+    }
+
+    public String getWhitelist() {
+        return whitelist;
+    }
+
+    public int getPageSegMode() {
+        return pageSegMode;
+    }
+}
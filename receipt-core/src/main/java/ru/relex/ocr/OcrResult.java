@@ -0,0 +1,12 @@
+package ru.relex.ocr;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class OcrResult {
+    private final String text;
+    /** Средняя уверенность Tesseract по странице, 0-100. */
+    private final int confidence;
+}
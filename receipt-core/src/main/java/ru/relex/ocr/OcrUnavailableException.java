@@ -0,0 +1,7 @@
+package ru.relex.ocr;
+
+public class OcrUnavailableException extends RuntimeException {
+    public OcrUnavailableException(String message) {
+        super(message);
+    }
+}
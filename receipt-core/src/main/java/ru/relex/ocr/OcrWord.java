@@ -0,0 +1,19 @@
+package ru.relex.ocr;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.awt.Rectangle;
+
+/**
+ * Распознанное слово: его место в тексте страницы {@code [from, to)}, рамка на изображении
+ * и уверенность Tesseract (0-100).
+ */
+@Getter
+@AllArgsConstructor
+public class OcrWord {
+    private final int from;
+    private final int to;
+    private final Rectangle bounds;
+    private final float confidence;
+}
@@ -0,0 +1,22 @@
+package ru.relex.service;
+
+import org.telegram.telegrambots.meta.api.objects.Document;
+import ru.relex.download.ReceiptContent;
+
+import java.io.IOException;
+
+public interface ReceiptDownloader {
+    /**
+     * Проверяет документ по метаданным Telegram (размер, тип), ничего не скачивая.
+     *
+     * @throws ru.relex.download.ReceiptRejectedException если документ не похож на чек
+     */
+    void check(Document document);
+
+    /**
+     * Скачивает чек в память или во временный файл. Результат обязательно закрыть.
+     *
+     * @param fileSize размер из метаданных Telegram или {@code null}
+     */
+    ReceiptContent download(String fileId, Long fileSize) throws IOException, InterruptedException;
+}
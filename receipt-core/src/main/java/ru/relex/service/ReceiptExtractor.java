@@ -0,0 +1,10 @@
+package ru.relex.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import ru.relex.model.ReceiptExtractionResult;
+
+import java.io.IOException;
+
+public interface ReceiptExtractor {
+    ReceiptExtractionResult extract(PDDocument document) throws IOException, InterruptedException;
+}
@@ -0,0 +1,69 @@
+package ru.relex.service.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.objects.Document;
+import ru.relex.download.ReceiptContent;
+import ru.relex.download.ReceiptRejectedException;
+import ru.relex.download.TelegramFileClient;
+import ru.relex.service.ReceiptDownloader;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Скачивает чеки без лишних обращений к диску: файлы до {@code receipt.in-memory-max-kb}
+ * читаются в буфер из пула, более крупные пишутся во временный каталог и удаляются
+ * при закрытии {@link ReceiptContent}. Сеть, таймауты и повторы — в {@link TelegramFileClient}.
+ */
+@Service
+@Log4j
+public class ReceiptDownloaderImpl implements ReceiptDownloader {
+    private static final String PDF_MIME_TYPE = "application/pdf";
+
+    @Value("${receipt.max-size-mb:20}")
+    private long maxSizeMb;
+
+    private final TelegramFileClient telegramFileClient;
+    private final Timer downloadTimer;
+
+    public ReceiptDownloaderImpl(TelegramFileClient telegramFileClient, MeterRegistry meterRegistry) {
+        this.telegramFileClient = telegramFileClient;
+        this.downloadTimer = Timer.builder("receipt.stage").description("Время стадии разбора чека")
+                .tag("stage", "download").register(meterRegistry);
+    }
+
+    @Override
+    public void check(Document document) {
+        String fileName = document.getFileName();
+        boolean pdf = PDF_MIME_TYPE.equalsIgnoreCase(document.getMimeType())
+                || (fileName != null && fileName.toLowerCase().endsWith(".pdf"));
+        if (!pdf) {
+            throw new ReceiptRejectedException("Ошибка: Чек должен быть в формате PDF.");
+        }
+        Long fileSize = document.getFileSize();
+        if (fileSize != null && fileSize > maxSizeBytes()) {
+            throw new ReceiptRejectedException("Ошибка: Файл слишком большой, максимум " + maxSizeMb + " МБ.");
+        }
+    }
+
+    @Override
+    public ReceiptContent download(String fileId, Long fileSize) throws IOException, InterruptedException {
+        if (fileSize != null && fileSize > maxSizeBytes()) {
+            throw new ReceiptRejectedException("Ошибка: Файл слишком большой, максимум " + maxSizeMb + " МБ.");
+        }
+        long start = System.nanoTime();
+        try {
+            return telegramFileClient.download(fileId, fileSize, maxSizeBytes());
+        } finally {
+            downloadTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private long maxSizeBytes() {
+        return maxSizeMb * 1024 * 1024;
+    }
+}
@@ -0,0 +1,530 @@
+package ru.relex.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+import ru.relex.model.ExtractionTier;
+import ru.relex.model.ReceiptExtractionResult;
+import ru.relex.ocr.OcrEngine;
+import ru.relex.ocr.OcrEnginePool;
+import ru.relex.ocr.OcrPage;
+import ru.relex.ocr.OcrProfile;
+import ru.relex.ocr.OcrResult;
+import ru.relex.service.ReceiptExtractor;
+import ru.relex.template.TemplateMatch;
+import ru.relex.template.TextRange;
+import ru.relex.utils.ReceiptTextParser;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Разбирает чек в два уровня. Сначала читается текстовый слой PDF — у чеков,
+ * сформированных банком, он есть, и разбор занимает миллисекунды. Если слоя нет
+ * или в нём не нашлись сумма и номер чека, недостающие поля ищутся через OCR:
+ * проход по страницам останавливается, как только найдены оба поля.
+ * <p>
+ * В режиме {@code ocr.mode=adaptive} (по умолчанию) страница сначала рендерится в оттенках
+ * серого с разрешением {@code ocr.adaptive.locate-dpi}, и по ней шаблон находит области полей.
+ * Неуверенно распознанные поля распознаются ещё раз по вырезке с разрешением
+ * {@code ocr.adaptive.field-dpi}, только цифрами и одной строкой. Полные страницы с разрешением
+ * {@value #RENDER_DPI} DPI распознаются, только если и это не помогло. В режиме {@code full}
+ * сразу распознаются полные страницы.
+ * <p>
+ * Страницы многостраничного документа распознаются параллельно на движках пула
+ * (не больше {@code ocr.page-parallelism} на документ); разбирается не больше
+ * {@code receipt.max-pages} первых страниц.
+ */
+@Service
+@Lazy
+@Log4j
+public class ReceiptExtractorImpl implements ReceiptExtractor {
+    private static final int RENDER_DPI = 300;
+    private static final float TEXT_LAYER_CONFIDENCE = 100f;
+    /** Поле вокруг рамки слов на странице низкого разрешения, в её пикселях. */
+    private static final int CROP_MARGIN_PX = 4;
+
+    @Value("${ocr.mode:adaptive}")
+    private String ocrMode;
+    @Value("${ocr.adaptive.locate-dpi:150}")
+    private int locateDpi;
+    @Value("${ocr.adaptive.field-dpi:300}")
+    private int fieldDpi;
+    @Value("${ocr.adaptive.min-confidence:75}")
+    private float minConfidence;
+    /** 0 — без ограничения. */
+    @Value("${receipt.max-pages:10}")
+    private int maxPages;
+    @Value("${ocr.page-parallelism:2}")
+    private int pageParallelism;
+
+    private final ReceiptTextParser receiptTextParser;
+    private final OcrEnginePool ocrEnginePool;
+    private final Timer textLayerTimer;
+    private final Timer renderTimer;
+    private final Timer ocrTimer;
+    private final Timer parseTimer;
+    private final Counter truncatedDocuments;
+    private final Counter cancelledPages;
+    private final MeterRegistry meterRegistry;
+    private ExecutorService pageExecutor;
+
+    public ReceiptExtractorImpl(ReceiptTextParser receiptTextParser, OcrEnginePool ocrEnginePool, MeterRegistry meterRegistry) {
+        this.receiptTextParser = receiptTextParser;
+        this.ocrEnginePool = ocrEnginePool;
+        this.meterRegistry = meterRegistry;
+        this.textLayerTimer = stageTimer("text_layer");
+        this.renderTimer = stageTimer("render");
+        this.ocrTimer = stageTimer("ocr");
+        this.parseTimer = stageTimer("parse");
+        this.truncatedDocuments = Counter.builder("receipt.pages.truncated")
+                .description("Документы, в которых страниц больше receipt.max-pages").register(meterRegistry);
+        this.cancelledPages = Counter.builder("receipt.ocr.pages.cancelled")
+                .description("Страницы, распознавание которых отменено после нахождения обоих полей").register(meterRegistry);
+    }
+
+    /**
+     * Потоков столько же, сколько движков в пуле: страница без движка всё равно ждёт.
+     */
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        pageExecutor = Executors.newFixedThreadPool(ocrEnginePool.getSize(), runnable -> {
+            Thread thread = new Thread(runnable, "receipt-ocr-page-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pageExecutor.shutdownNow();
+    }
+
+    private Timer stageTimer(String stage) {
+        return Timer.builder("receipt.stage").description("Время стадии разбора чека")
+                .tag("stage", stage).register(meterRegistry);
+    }
+
+    @Override
+    public ReceiptExtractionResult extract(PDDocument document) throws IOException, InterruptedException {
+        int pageCount = maxPages > 0 ? Math.min(document.getNumberOfPages(), maxPages) : document.getNumberOfPages();
+        if (pageCount < document.getNumberOfPages()) {
+            truncatedDocuments.increment();
+            log.warn("В документе " + document.getNumberOfPages() + " страниц, разбираются первые " + maxPages);
+        }
+
+        long start = System.nanoTime();
+        ReceiptExtractionResult textLayerResult = extractFromTextLayer(document, pageCount);
+        textLayerTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (textLayerResult.isComplete()) {
+            return counted(textLayerResult);
+        }
+        log.info("Текстовый слой не содержит суммы и номера чека, переходим к OCR");
+        return counted(extractWithOcr(document, textLayerResult, pageCount));
+    }
+
+    private ReceiptExtractionResult counted(ReceiptExtractionResult result) {
+        meterRegistry.counter("receipt.extracted", "tier", result.getTier().name().toLowerCase(),
+                "complete", Boolean.toString(result.isComplete())).increment();
+        return result;
+    }
+
+    private ReceiptExtractionResult extractFromTextLayer(PDDocument document, int pageCount) throws IOException {
+        PDFTextStripper stripper = new PDFTextStripper();
+        Double paymentAmount = null;
+        String checkNumber = null;
+        int page = 0;
+
+        for (; page < pageCount; page++) {
+            stripper.setStartPage(page + 1);
+            stripper.setEndPage(page + 1);
+            String pageText = stripper.getText(document);
+            if (pageText.isBlank()) {
+                continue;
+            }
+            log.debug("Текстовый слой страницы: \n" + pageText);
+
+            long parseStart = System.nanoTime();
+            TemplateMatch match = receiptTextParser.parse(pageText);
+            if (paymentAmount == null) paymentAmount = match.getPaymentAmount();
+            if (checkNumber == null) checkNumber = match.getCheckNumber();
+            parseTimer.record(System.nanoTime() - parseStart, TimeUnit.NANOSECONDS);
+            if (paymentAmount != null && checkNumber != null) break;
+        }
+
+        int pageIndex = Math.min(page, pageCount - 1);
+        return new ReceiptExtractionResult(paymentAmount, checkNumber, pageIndex, TEXT_LAYER_CONFIDENCE,
+                ExtractionTier.TEXT_LAYER);
+    }
+
+    /**
+     * Ищет через OCR поля, которых не оказалось в текстовом слое; найденные там поля сохраняются.
+     */
+    private ReceiptExtractionResult extractWithOcr(PDDocument document, ReceiptExtractionResult known, int pageCount)
+            throws IOException, InterruptedException {
+        PDFRenderer pdfRenderer = new PDFRenderer(document);
+        ScanState state = new ScanState(known);
+        if ("full".equals(ocrMode)) {
+            scanPages(pageCount, state, (engine, page, needAmount, needCheck) ->
+                    scanFullPage(pdfRenderer, page, engine, needAmount, needCheck));
+        } else {
+            scanPages(pageCount, state, (engine, page, needAmount, needCheck) ->
+                    scanFields(pdfRenderer, page, engine, needAmount, needCheck));
+            if (!state.isComplete()) {
+                // Поля не нашлись на страницах низкого разрешения или распознаны неуверенно.
+                scanPages(pageCount, state, (engine, page, needAmount, needCheck) ->
+                        scanFullPage(pdfRenderer, page, engine, needAmount, needCheck));
+            }
+            report(state);
+        }
+
+        if (state.paymentAmount == null) {
+            log.warn("Не удалось найти сумму на чеке.");
+        }
+        float confidence = state.paymentAmount == null && state.checkNumber == null ? 0 : state.confidence;
+        return new ReceiptExtractionResult(state.paymentAmount, state.checkNumber, state.pageIndex, confidence,
+                ExtractionTier.OCR);
+    }
+
+    /**
+     * Прогоняет страницы через {@code scan}, пока не найдены оба поля. Одностраничный документ
+     * разбирается на вызывающем потоке одним движком. Страницы многостраничного распознаются
+     * параллельно, но не больше {@code ocr.page-parallelism} одновременно, чтобы один длинный
+     * документ не занял все движки пула. Готовые результаты копятся и объединяются строго по
+     * порядку страниц, поэтому итог не зависит от того, какая страница распознана раньше.
+     * <p>
+     * Когда оба поля найдены, ещё не начатые страницы пропускаются, а распознаваемые сейчас
+     * дожидаются: метод возвращается только тогда, когда ни одна задача больше не обратится
+     * к документу, который вызывающий код сразу закроет.
+     */
+    private void scanPages(int pageCount, ScanState state, PageScan scan) throws IOException, InterruptedException {
+        if (pageCount == 1 || pageParallelism <= 1) {
+            OcrEngine engine = ocrEnginePool.acquire();
+            try {
+                for (int page = 0; page < pageCount && !state.isComplete(); page++) {
+                    state.merge(scan.scan(engine, page, state.paymentAmount == null, state.checkNumber == null));
+                }
+            } finally {
+                ocrEnginePool.release(engine);
+            }
+            return;
+        }
+
+        CompletionService<PageResult> completionService = new ExecutorCompletionService<>(pageExecutor);
+        List<Future<PageResult>> futures = new ArrayList<>(pageCount);
+        PageResult[] ready = new PageResult[pageCount];
+        AtomicBoolean aborted = new AtomicBoolean();
+        int next = 0;
+        int merged = 0;
+        int running = 0;
+        try {
+            while (!state.isComplete() && merged < pageCount) {
+                while (running < pageParallelism && next < pageCount) {
+                    int page = next++;
+                    boolean needAmount = state.paymentAmount == null;
+                    boolean needCheck = state.checkNumber == null;
+                    futures.add(completionService.submit(
+                            () -> scanWithEngine(scan, page, needAmount, needCheck, aborted)));
+                    running++;
+                }
+                PageResult result = resultOf(completionService.take());
+                running--;
+                ready[result.page] = result;
+                while (merged < pageCount && ready[merged] != null && !state.isComplete()) {
+                    state.merge(ready[merged++]);
+                }
+            }
+        } finally {
+            aborted.set(true);
+            int skipped = awaitAll(futures);
+            if (skipped > 0) {
+                cancelledPages.increment(skipped);
+                log.debug("Пропущено страниц после нахождения обоих полей: " + skipped);
+            }
+        }
+    }
+
+    /**
+     * Ждёт все задачи документа, не реагируя на прерывание: после возврата ни одна из них
+     * не работает с документом. Флаг прерывания восстанавливается.
+     *
+     * @return сколько страниц пропущено без распознавания
+     */
+    private static int awaitAll(List<Future<PageResult>> futures) {
+        boolean interrupted = false;
+        int skipped = 0;
+        for (Future<PageResult> future : futures) {
+            while (true) {
+                try {
+                    if (future.get() == null) skipped++;
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return skipped;
+    }
+
+    /**
+     * @return {@code null}, если разбор документа уже закончен и страницу распознавать не нужно
+     */
+    private PageResult scanWithEngine(PageScan scan, int page, boolean needAmount, boolean needCheck,
+                                      AtomicBoolean aborted) throws IOException, InterruptedException {
+        if (aborted.get()) return null;
+        OcrEngine engine = ocrEnginePool.acquire();
+        try {
+            if (aborted.get()) return null;
+            return scan.scan(engine, page, needAmount, needCheck);
+        } finally {
+            ocrEnginePool.release(engine);
+        }
+    }
+
+    private static PageResult resultOf(Future<PageResult> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException("Ошибка распознавания страницы", cause);
+        }
+    }
+
+    /**
+     * Страница рендерится в оттенках серого с низким разрешением и распознаётся по словам;
+     * шаблон находит на ней сумму и номер чека. Уверенно распознанное значение принимается сразу,
+     * неуверенное распознаётся заново по вырезке с высоким разрешением и профилем поля.
+     */
+    private PageResult scanFields(PDFRenderer pdfRenderer, int page, OcrEngine engine,
+                                  boolean needAmount, boolean needCheck) throws IOException {
+        PageResult result = new PageResult(page, false);
+        long renderStart = System.nanoTime();
+        BufferedImage image;
+        synchronized (pdfRenderer) {
+            image = pdfRenderer.renderImageWithDPI(page, locateDpi, ImageType.GRAY);
+        }
+        long ocrStart = System.nanoTime();
+        renderTimer.record(ocrStart - renderStart, TimeUnit.NANOSECONDS);
+        OcrPage layout = engine.recognizeWords(image, locateDpi);
+        long parseStart = System.nanoTime();
+        ocrTimer.record(parseStart - ocrStart, TimeUnit.NANOSECONDS);
+        TemplateMatch match = receiptTextParser.parse(layout.getText());
+        parseTimer.record(System.nanoTime() - parseStart, TimeUnit.NANOSECONDS);
+
+        if (needAmount && match.getPaymentAmountRange() != null) {
+            result.paymentAmount = readField(pdfRenderer, page, engine, layout, match.getPaymentAmountRange(),
+                    match.getPaymentAmount(), OcrProfile.AMOUNT, match.getPaymentAmountTemplate()::parseAmount, result);
+        }
+        if (needCheck && match.getCheckNumberRange() != null) {
+            result.checkNumber = readField(pdfRenderer, page, engine, layout, match.getCheckNumberRange(),
+                    match.getCheckNumber(), OcrProfile.CHECK_NUMBER, match.getCheckNumberTemplate()::parseCheckNumber, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return значение поля или {@code null}, если ни на странице, ни на вырезке оно не распознано уверенно
+     */
+    private <T> T readField(PDFRenderer pdfRenderer, int page, OcrEngine engine, OcrPage layout, TextRange range,
+                            T locatedValue, OcrProfile profile, BiFunction<String, TextRange, T> parser,
+                            PageResult result) throws IOException {
+        float locatedConfidence = layout.confidenceOf(range.getFrom(), range.getTo());
+        if (locatedConfidence >= minConfidence) {
+            result.accept(locatedConfidence);
+            return locatedValue;
+        }
+
+        Rectangle bounds = layout.boundsOf(range.getFrom(), range.getTo());
+        if (bounds == null) return null;
+        result.crops++;
+        long renderStart = System.nanoTime();
+        BufferedImage crop = renderCrop(pdfRenderer, page, bounds);
+        long ocrStart = System.nanoTime();
+        renderTimer.record(ocrStart - renderStart, TimeUnit.NANOSECONDS);
+        OcrResult ocrResult = engine.recognizeField(crop, fieldDpi, profile);
+        ocrTimer.record(System.nanoTime() - ocrStart, TimeUnit.NANOSECONDS);
+
+        String text = ocrResult.getText().trim();
+        T value = parser.apply(text, new TextRange(0, text.length()));
+        if (value == null || ocrResult.getConfidence() < minConfidence) {
+            return null;
+        }
+        result.accept(ocrResult.getConfidence());
+        return value;
+    }
+
+    /**
+     * Рендерит с разрешением {@code ocr.adaptive.field-dpi} только область поля: рамка слов
+     * со страницы низкого разрешения переводится в масштаб вырезки с небольшим полем вокруг.
+     */
+    private BufferedImage renderCrop(PDFRenderer pdfRenderer, int page, Rectangle bounds) throws IOException {
+        double ratio = (double) fieldDpi / locateDpi;
+        int margin = (int) Math.ceil(CROP_MARGIN_PX * ratio);
+        int x = Math.max(0, (int) Math.floor(bounds.x * ratio) - margin);
+        int y = Math.max(0, (int) Math.floor(bounds.y * ratio) - margin);
+        int width = (int) Math.ceil(bounds.width * ratio) + 2 * margin;
+        int height = (int) Math.ceil(bounds.height * ratio) + 2 * margin;
+
+        BufferedImage crop = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = crop.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.translate(-x, -y);
+            synchronized (pdfRenderer) {
+                pdfRenderer.renderPageToGraphics(page, graphics, fieldDpi / 72f);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return crop;
+    }
+
+    /**
+     * Полное распознавание страницы с разрешением {@value #RENDER_DPI} DPI: последний уровень
+     * адаптивного режима и единственный в режиме {@code ocr.mode=full}.
+     */
+    private PageResult scanFullPage(PDFRenderer pdfRenderer, int page, OcrEngine engine,
+                                    boolean needAmount, boolean needCheck) throws IOException {
+        log.info("Сканирование страницы: " + (page + 1));
+        PageResult result = new PageResult(page, true);
+        long renderStart = System.nanoTime();
+        BufferedImage image;
+        synchronized (pdfRenderer) {
+            image = pdfRenderer.renderImageWithDPI(page, RENDER_DPI, ImageType.GRAY);
+        }
+        long ocrStart = System.nanoTime();
+        renderTimer.record(ocrStart - renderStart, TimeUnit.NANOSECONDS);
+        OcrResult ocrResult = engine.recognize(image, RENDER_DPI);
+        long parseStart = System.nanoTime();
+        ocrTimer.record(parseStart - ocrStart, TimeUnit.NANOSECONDS);
+        String pageText = ocrResult.getText();
+        log.debug("Распознанный текст страницы: \n" + pageText);
+
+        TemplateMatch match = receiptTextParser.parse(pageText);
+        if (needAmount && match.getPaymentAmount() != null) {
+            result.paymentAmount = match.getPaymentAmount();
+            result.accept(ocrResult.getConfidence());
+        }
+        if (needCheck && match.getCheckNumber() != null) {
+            result.checkNumber = match.getCheckNumber();
+            result.accept(ocrResult.getConfidence());
+        }
+        parseTimer.record(System.nanoTime() - parseStart, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    /**
+     * Какой уровень понадобился чеку: только страница низкого разрешения, вырезки полей
+     * или полное распознавание страниц.
+     */
+    private void report(ScanState state) {
+        String level = state.fullPages > 0 ? "full_page" : state.crops > 0 ? "field" : "locate";
+        meterRegistry.counter("receipt.ocr.escalation", "level", level).increment();
+        meterRegistry.counter("receipt.ocr.crops").increment(state.crops);
+        log.info("OCR чека: уровень " + level + ", страниц " + locateDpi + " DPI: " + state.locatedPages
+                + ", вырезок полей: " + state.crops + ", страниц " + RENDER_DPI + " DPI: " + state.fullPages);
+    }
+
+    @FunctionalInterface
+    private interface PageScan {
+        PageResult scan(OcrEngine engine, int page, boolean needAmount, boolean needCheck) throws IOException;
+    }
+
+    /**
+     * Поля, найденные на одной странице. Заполняется потоком, который эту страницу распознаёт.
+     */
+    private static final class PageResult {
+        private final int page;
+        private final boolean fullPage;
+        private Double paymentAmount;
+        private String checkNumber;
+        private int crops;
+        /** Наименьшая уверенность среди принятых полей. */
+        private float confidence = 100f;
+
+        private PageResult(int page, boolean fullPage) {
+            this.page = page;
+            this.fullPage = fullPage;
+        }
+
+        private void accept(float fieldConfidence) {
+            confidence = Math.min(confidence, fieldConfidence);
+        }
+    }
+
+    /**
+     * Поля чека, собранные со всех страниц, и сколько работы на это ушло.
+     * Меняется только потоком, который разбирает документ.
+     */
+    private static final class ScanState {
+        private Double paymentAmount;
+        private String checkNumber;
+        private float confidence;
+        /** Страница, на которой найдено последнее из принятых полей. */
+        private int pageIndex;
+        private int locatedPages;
+        private int crops;
+        private int fullPages;
+
+        private ScanState(ReceiptExtractionResult known) {
+            this.paymentAmount = known.getPaymentAmount();
+            this.checkNumber = known.getCheckNumber();
+            this.confidence = known.getConfidence();
+            this.pageIndex = known.getPageIndex();
+        }
+
+        private void merge(PageResult result) {
+            if (result.fullPage) fullPages++;
+            else locatedPages++;
+            crops += result.crops;
+            if (paymentAmount == null && result.paymentAmount != null) {
+                paymentAmount = result.paymentAmount;
+                confidence = Math.min(confidence, result.confidence);
+                pageIndex = result.page;
+            }
+            if (checkNumber == null && result.checkNumber != null) {
+                checkNumber = result.checkNumber;
+                confidence = Math.min(confidence, result.confidence);
+                pageIndex = result.page;
+            }
+        }
+
+        private boolean isComplete() {
+            return paymentAmount != null && checkNumber != null;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package ru.relex.storage;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.relex.model.ExtractionTier;
+import ru.relex.model.ReceiptExtractionResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Результаты разбора уже присланных чеков. Повторный чек узнаётся сначала по
+ * file_unique_id из Telegram (ещё до скачивания), затем по SHA-256 содержимого
+ * (тот же PDF, загруженный заново) и отвечается без рендеринга и OCR.
+ * <p>
+ * Размер ограничен {@code receipt.cache.max-size} (вытесняются давно не использованные),
+ * записи старше {@code receipt.cache.ttl-hours} не выдаются. Кэш сохраняется в
+ * {@code storage.dir} раз в минуту и при остановке, поэтому переживает перезапуск.
+ * <p>
+ * Запоминаются только полностью разобранные чеки (сумма и номер). Неудачный разбор
+ * не кэшируется: после исправления шаблонов или OCR тот же чек будет разобран заново.
+ */
+@Component
+@Log4j
+public class ReceiptDedupCache implements MeterBinder {
+    private static final int CACHE_MAGIC = 0x52434348;
+    private static final int CACHE_VERSION = 1;
+    private static final String CACHE_FILE = "receipt-cache.bin";
+
+    @Value("${receipt.cache.max-size:100000}")
+    private int maxSize;
+    @Value("${receipt.cache.ttl-hours:720}")
+    private long ttlHours;
+    @Value("${storage.dir:data}")
+    private String storageDir;
+
+    /** SHA-256 -> результат. Порядок доступа: первым вытесняется давно не использованный. */
+    private Map<String, CachedReceipt> byHash;
+    /** file_unique_id -> SHA-256. */
+    private Map<String, String> byUniqueId;
+    private boolean dirty;
+    private final Object persistLock = new Object();
+    private ScheduledExecutorService persistExecutor;
+
+    private final LongAdder uniqueIdHits = new LongAdder();
+    private final LongAdder hashHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @PostConstruct
+    public synchronized void init() {
+        byHash = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedReceipt> eldest) {
+                return size() > maxSize;
+            }
+        };
+        byUniqueId = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxSize;
+            }
+        };
+        load();
+
+        persistExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "receipt-cache-persist");
+            thread.setDaemon(true);
+            return thread;
+        });
+        persistExecutor.scheduleWithFixedDelay(this::persistQuietly, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Поиск до скачивания, по file_unique_id документа.
+     */
+    public synchronized ReceiptExtractionResult findByUniqueId(String fileUniqueId) {
+        String hash = fileUniqueId == null ? null : byUniqueId.get(fileUniqueId);
+        ReceiptExtractionResult result = hash == null ? null : lookup(hash);
+        if (result != null) uniqueIdHits.increment();
+        return result;
+    }
+
+    /**
+     * Поиск после скачивания, по хэшу содержимого. Промах считается здесь:
+     * после него чек уходит на полный разбор.
+     */
+    public synchronized ReceiptExtractionResult findByHash(String fileUniqueId, String sha256) {
+        ReceiptExtractionResult result = lookup(sha256);
+        if (result == null) {
+            misses.increment();
+            return null;
+        }
+        hashHits.increment();
+        if (fileUniqueId != null) {
+            // Тот же файл мог прийти с другим file_unique_id: запоминаем и его.
+            byUniqueId.put(fileUniqueId, sha256);
+            dirty = true;
+        }
+        return result;
+    }
+
+    /**
+     * Запоминает результат, если он полный; неполный пропускается.
+     */
+    public synchronized void put(String fileUniqueId, String sha256, ReceiptExtractionResult result) {
+        if (!result.isComplete()) return;
+        byHash.put(sha256, new CachedReceipt(result.getPaymentAmount(), result.getCheckNumber(),
+                result.getPageIndex(), result.getConfidence(), System.currentTimeMillis()));
+        if (fileUniqueId != null) byUniqueId.put(fileUniqueId, sha256);
+        dirty = true;
+    }
+
+    private ReceiptExtractionResult lookup(String sha256) {
+        CachedReceipt cached = byHash.get(sha256);
+        if (cached == null) return null;
+        if (isExpired(cached)) {
+            byHash.remove(sha256);
+            dirty = true;
+            return null;
+        }
+        return new ReceiptExtractionResult(cached.paymentAmount, cached.checkNumber,
+                cached.pageIndex, cached.confidence, ExtractionTier.CACHE);
+    }
+
+    private boolean isExpired(CachedReceipt cached) {
+        return System.currentTimeMillis() - cached.createdMillis > TimeUnit.HOURS.toMillis(ttlHours);
+    }
+
+    public synchronized int size() {
+        return byHash.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("receipt.cache.size", this, ReceiptDedupCache::size).register(registry);
+        FunctionCounter.builder("receipt.cache.hits", this, ReceiptDedupCache::getUniqueIdHits)
+                .tag("key", "unique_id").register(registry);
+        FunctionCounter.builder("receipt.cache.hits", this, ReceiptDedupCache::getHashHits)
+                .tag("key", "sha256").register(registry);
+        FunctionCounter.builder("receipt.cache.misses", this, ReceiptDedupCache::getMisses).register(registry);
+    }
+
+    public long getUniqueIdHits() {
+        return uniqueIdHits.sum();
+    }
+
+    public long getHashHits() {
+        return hashHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Доля чеков, отвеченных из кэша, от всех проверенных.
+     */
+    public double getHitRatio() {
+        long hits = uniqueIdHits.sum() + hashHits.sum();
+        long total = hits + misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private void load() {
+        Path path = Paths.get(storageDir).toAbsolutePath().resolve(CACHE_FILE);
+        if (!Files.exists(path)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION) {
+                log.warn("Неизвестный формат " + path + ", кэш чеков начат заново");
+                return;
+            }
+            int hashes = in.readInt();
+            for (int i = 0; i < hashes; i++) {
+                String hash = in.readUTF();
+                Double amount = in.readBoolean() ? in.readDouble() : null;
+                String checkNumber = in.readBoolean() ? in.readUTF() : null;
+                CachedReceipt cached = new CachedReceipt(amount, checkNumber, in.readInt(), in.readFloat(), in.readLong());
+                // Неполные результаты сохранялись прежними версиями: их чеки разбираются заново.
+                if (!isExpired(cached) && amount != null && checkNumber != null) byHash.put(hash, cached);
+            }
+            int uniqueIds = in.readInt();
+            for (int i = 0; i < uniqueIds; i++) {
+                String uniqueId = in.readUTF();
+                String hash = in.readUTF();
+                if (byHash.containsKey(hash)) byUniqueId.put(uniqueId, hash);
+            }
+            log.info("Кэш чеков загружен: " + byHash.size() + " записей");
+        } catch (IOException e) {
+            // Кэш лишь ускоряет ответ: при повреждении чеки будут разобраны заново.
+            log.warn("Не удалось прочитать кэш чеков " + path + ", начат заново", e);
+            byHash.clear();
+            byUniqueId.clear();
+        }
+    }
+
+    /**
+     * Записи копируются под блокировкой кэша, а файл пишется уже без неё:
+     * поиск чеков не ждёт диска. Два сохранения одновременно файл не пишут.
+     */
+    public void persist() throws IOException {
+        synchronized (persistLock) {
+            Map<String, CachedReceipt> hashes;
+            Map<String, String> uniqueIds;
+            synchronized (this) {
+                if (!dirty) return;
+                // Копии сохраняют порядок от давних к свежим, при загрузке порядок LRU сохранится.
+                hashes = new LinkedHashMap<>(byHash);
+                uniqueIds = new LinkedHashMap<>(byUniqueId);
+                dirty = false;
+            }
+            try {
+                write(hashes, uniqueIds);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void write(Map<String, CachedReceipt> hashes, Map<String, String> uniqueIds) throws IOException {
+        Path dir = Paths.get(storageDir).toAbsolutePath();
+        Files.createDirectories(dir);
+        Path tmp = dir.resolve(CACHE_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(hashes.size());
+            for (Map.Entry<String, CachedReceipt> entry : hashes.entrySet()) {
+                CachedReceipt cached = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(cached.paymentAmount != null);
+                if (cached.paymentAmount != null) out.writeDouble(cached.paymentAmount);
+                out.writeBoolean(cached.checkNumber != null);
+                if (cached.checkNumber != null) out.writeUTF(cached.checkNumber);
+                out.writeInt(cached.pageIndex);
+                out.writeFloat(cached.confidence);
+                out.writeLong(cached.createdMillis);
+            }
+            out.writeInt(uniqueIds.size());
+            for (Map.Entry<String, String> entry : uniqueIds.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+        }
+        Files.move(tmp, dir.resolve(CACHE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void persistQuietly() {
+        try {
+            persist();
+        } catch (IOException e) {
+            log.error("Не удалось сохранить кэш чеков", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (persistExecutor != null) persistExecutor.shutdownNow();
+        persistQuietly();
+    }
+
+    private static final class CachedReceipt {
+        private final Double paymentAmount;
+        private final String checkNumber;
+        private final int pageIndex;
+        private final float confidence;
+        private final long createdMillis;
+
+        private CachedReceipt(Double paymentAmount, String checkNumber, int pageIndex, float confidence, long createdMillis) {
+            this.paymentAmount = paymentAmount;
+            this.checkNumber = checkNumber;
+            this.pageIndex = pageIndex;
+            this.confidence = confidence;
+            this.createdMillis = createdMillis;
+        }
+    }
+}
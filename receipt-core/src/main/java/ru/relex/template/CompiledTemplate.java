@@ -0,0 +1,236 @@
+package ru.relex.template;
+
+import java.text.DecimalFormatSymbols;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Шаблон, подготовленный к разбору: выражения скомпилированы, разделители чисел
+ * определены по локали. Каждый маркер ищется одним {@code indexOf} по всему тексту,
+ * значение читается прямо из текста по позициям, без разбиения на строки,
+ * {@code replaceAll} и промежуточных строк. Потокобезопасен.
+ */
+public final class CompiledTemplate {
+    /** Больше цифр в целой части не бывает у настоящей суммы, зато бывает у склеенного OCR мусора. */
+    private static final int MAX_AMOUNT_DIGITS = 15;
+
+    private final String name;
+    private final String[] anchors;
+    private final Field amount;
+    private final Field checkNumber;
+    private final char decimalSeparator;
+    private final String groupingSeparators;
+
+    private CompiledTemplate(ReceiptTemplate template) {
+        this.name = template.getName();
+        this.anchors = template.getAnchors().toArray(new String[0]);
+        this.amount = new Field(template.getAmount());
+        this.checkNumber = new Field(template.getCheckNumber());
+
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.forLanguageTag(template.getLocale()));
+        this.decimalSeparator = symbols.getDecimalSeparator();
+        char grouping = symbols.getGroupingSeparator();
+        // Пробел-разделитель разрядов в тексте чека бывает обычным, неразрывным или узким.
+        this.groupingSeparators = Character.isSpaceChar(grouping) ? " \u00a0\u202f" : String.valueOf(grouping);
+    }
+
+    /**
+     * @throws IllegalArgumentException если шаблон записан с ошибкой
+     */
+    public static CompiledTemplate compile(ReceiptTemplate template) {
+        if (template.getName() == null || template.getName().isBlank()) {
+            throw new IllegalArgumentException("У шаблона чека не задано имя");
+        }
+        try {
+            return new CompiledTemplate(template);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Ошибка в выражении шаблона " + template.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true, если в тексте есть все якоря шаблона
+     */
+    public boolean matches(String text) {
+        for (String anchor : anchors) {
+            if (text.indexOf(anchor) < 0) return false;
+        }
+        return true;
+    }
+
+    public boolean isFallback() {
+        return anchors.length == 0;
+    }
+
+    /**
+     * @return участок текста с суммой (само число, без маркера и валюты) или {@code null}, если сумма не найдена
+     */
+    public TextRange locatePaymentAmount(String text) {
+        for (String marker : amount.after) {
+            int start = nextLineStart(text, text.indexOf(marker));
+            TextRange range = start < 0 ? null : amountSpan(text, start, lineEnd(text, start));
+            if (range != null) return range;
+        }
+        for (String marker : amount.markers) {
+            int index = text.indexOf(marker);
+            if (index < 0) continue;
+            int start = index + marker.length();
+            TextRange range = amountSpan(text, start, lineEnd(text, start));
+            if (range != null) return range;
+        }
+        if (amount.pattern != null) {
+            Matcher matcher = amount.pattern.matcher(text);
+            while (matcher.find()) {
+                int group = matcher.groupCount() > 0 ? 1 : 0;
+                TextRange range = amountSpan(text, matcher.start(group), matcher.end(group));
+                if (range != null) return range;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return участок текста с номером чека или {@code null}, если номер не найден
+     */
+    public TextRange locateCheckNumber(String text) {
+        for (String marker : checkNumber.after) {
+            int start = nextLineStart(text, text.indexOf(marker));
+            if (start >= 0 && hasDigit(text, start, lineEnd(text, start))) {
+                return new TextRange(start, lineEnd(text, start));
+            }
+        }
+        for (String marker : checkNumber.markers) {
+            int index = text.indexOf(marker);
+            if (index < 0) continue;
+            int start = index + marker.length();
+            if (hasDigit(text, start, lineEnd(text, start))) {
+                return new TextRange(start, lineEnd(text, start));
+            }
+        }
+        if (checkNumber.pattern != null) {
+            Matcher matcher = checkNumber.pattern.matcher(text);
+            while (matcher.find()) {
+                int group = matcher.groupCount() > 0 ? 1 : 0;
+                if (hasDigit(text, matcher.start(group), matcher.end(group))) {
+                    return new TextRange(matcher.start(group), matcher.end(group));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Читает сумму из участка, найденного {@link #locatePaymentAmount}, или из текста,
+     * распознанного на вырезке с одним числом.
+     *
+     * @return сумма или {@code null}, если числа нет или в его целой части больше
+     * {@value #MAX_AMOUNT_DIGITS} цифр
+     */
+    public Double parseAmount(String text, TextRange range) {
+        TextRange span = amountSpan(text, range.getFrom(), range.getTo());
+        if (span == null) return null;
+        long units = 0;
+        int unitDigits = 0;
+        long cents = 0;
+        int fractionDigits = -1;
+        for (int i = span.getFrom(); i < span.getTo(); i++) {
+            char c = text.charAt(i);
+            if (c == decimalSeparator) {
+                fractionDigits = 0;
+            } else if (isDigit(c) && fractionDigits < 0) {
+                if (++unitDigits > MAX_AMOUNT_DIGITS) return null;
+                units = units * 10 + (c - '0');
+            } else if (isDigit(c)) {
+                cents = cents * 10 + (c - '0');
+                fractionDigits++;
+            }
+        }
+        return units + (fractionDigits == 1 ? cents * 10 : cents) / 100.0;
+    }
+
+    public String parseCheckNumber(String text, TextRange range) {
+        return digits(text, range.getFrom(), range.getTo());
+    }
+
+    /**
+     * Первое число в диапазоне: цифры с разделителями разрядов и не больше двух знаков после
+     * десятичного разделителя. Разделитель разрядов учитывается, только если за ним идёт цифра.
+     */
+    private TextRange amountSpan(String text, int from, int to) {
+        int start = from;
+        while (start < to && !isDigit(text.charAt(start))) start++;
+        if (start == to) return null;
+
+        int i = start;
+        while (i < to && (isDigit(text.charAt(i))
+                || (groupingSeparators.indexOf(text.charAt(i)) >= 0 && i + 1 < to && isDigit(text.charAt(i + 1))))) {
+            i++;
+        }
+        if (i + 1 < to && text.charAt(i) == decimalSeparator && isDigit(text.charAt(i + 1))) {
+            i += 2;
+            if (i < to && isDigit(text.charAt(i))) i++;
+        }
+        return new TextRange(start, i);
+    }
+
+    /**
+     * @return все цифры диапазона подряд (номер чека вида «QR12345678901» даёт «12345678901»)
+     * или {@code null}, если цифр нет
+     */
+    private static String digits(String text, int from, int to) {
+        StringBuilder digits = null;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (isDigit(c)) {
+                if (digits == null) digits = new StringBuilder(to - i);
+                digits.append(c);
+            }
+        }
+        return digits == null ? null : digits.toString();
+    }
+
+    private static boolean hasDigit(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (isDigit(text.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int lineEnd(String text, int from) {
+        int end = text.indexOf('\n', from);
+        return end < 0 ? text.length() : end;
+    }
+
+    private static int nextLineStart(String text, int markerIndex) {
+        if (markerIndex < 0) return -1;
+        int end = text.indexOf('\n', markerIndex);
+        return end < 0 ? -1 : end + 1;
+    }
+
+    private static final class Field {
+        private final String[] after;
+        private final String[] markers;
+        private final Pattern pattern;
+
+        private Field(FieldRule rule) {
+            this.after = toArray(rule.getAfter());
+            this.markers = toArray(rule.getMarkers());
+            this.pattern = rule.getPattern() != null ? Pattern.compile(rule.getPattern(), Pattern.MULTILINE) : null;
+        }
+
+        private static String[] toArray(List<String> values) {
+            return values != null ? values.toArray(new String[0]) : new String[0];
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package ru.relex.template;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Как найти одно поле чека. Правила проверяются по порядку, до первого найденного значения:
+ * <ol>
+ *     <li>{@code after}: значение на строке, следующей за строкой с маркером;</li>
+ *     <li>{@code markers}: значение на той же строке, после маркера;</li>
+ *     <li>{@code pattern}: первое совпадение регулярного выражения (группа 1, если она есть).</li>
+ * </ol>
+ * Внутри списка маркеры проверяются в порядке конфигурации.
+ */
+@Data
+@NoArgsConstructor
+public class FieldRule {
+    private List<String> after = new ArrayList<>();
+    private List<String> markers = new ArrayList<>();
+    private String pattern;
+}
@@ -0,0 +1,25 @@
+package ru.relex.template;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Шаблон чека одного банка или продавца, как он записан в {@code receipt-templates.json}.
+ * Шаблон подходит странице, если в её тексте есть все {@code anchors}; шаблон без якорей
+ * подходит любой странице и служит запасным.
+ * <p>
+ * {@code locale} задаёт разделители в суммах: для ru-RU это запятая и пробел
+ * («15 800,00»), для en-US — точка и запятая («15,800.00»).
+ */
+@Data
+@NoArgsConstructor
+public class ReceiptTemplate {
+    private String name;
+    private List<String> anchors = new ArrayList<>();
+    private String locale = "ru-RU";
+    private FieldRule amount = new FieldRule();
+    private FieldRule checkNumber = new FieldRule();
+}
@@ -0,0 +1,32 @@
+package ru.relex.template;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Поля, найденные на странице, участки текста, из которых они прочитаны, и шаблон,
+ * который был выбран для страницы ({@code null}, если не подошёл ни один шаблон).
+ * Поле может найти и следующий подходящий шаблон, поэтому у каждого поля свой шаблон:
+ * перечитывать вырезку нужно по правилам (локали) того, кто нашёл поле.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class TemplateMatch {
+    @ToString.Exclude
+    private final CompiledTemplate template;
+    private final Double paymentAmount;
+    private final String checkNumber;
+    private final TextRange paymentAmountRange;
+    private final TextRange checkNumberRange;
+    @ToString.Exclude
+    private final CompiledTemplate paymentAmountTemplate;
+    @ToString.Exclude
+    private final CompiledTemplate checkNumberTemplate;
+
+    @ToString.Include(name = "template")
+    public String getTemplateName() {
+        return template != null ? template.getName() : null;
+    }
+}
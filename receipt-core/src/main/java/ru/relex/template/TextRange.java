@@ -0,0 +1,17 @@
+package ru.relex.template;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Участок текста страницы {@code [from, to)}, из которого прочитано значение поля.
+ * По нему OCR находит на изображении область поля.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class TextRange {
+    private final int from;
+    private final int to;
+}
@@ -0,0 +1,120 @@
+package ru.relex.utils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import ru.relex.template.CompiledTemplate;
+import ru.relex.template.ReceiptTemplate;
+import ru.relex.template.TemplateMatch;
+import ru.relex.template.TextRange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Поиск суммы и номера чека в тексте страницы по шаблонам банков и продавцов из
+ * {@code receipt.templates.location} (по умолчанию {@code receipt-templates.json} в classpath).
+ * Шаблоны компилируются один раз при старте; новый банк добавляется записью в файле, без изменения кода.
+ * <p>
+ * Странице достаётся первый шаблон, чьи якоря есть в тексте. Поля, которых он не нашёл,
+ * ищутся следующими подходящими шаблонами, в том числе запасным (без якорей).
+ * Число страниц по шаблонам и полнота разбора считаются в {@code receipt.template}.
+ */
+@Log4j
+@Component
+public class ReceiptTextParser {
+    private final List<CompiledTemplate> templates = new ArrayList<>();
+    /** По шаблону: [оба поля, одно поле, ничего], в порядке {@link #templates}. */
+    private final List<Counter[]> hits = new ArrayList<>();
+    private final Counter unmatched;
+
+    public ReceiptTextParser(ObjectMapper objectMapper,
+                             @Value("${receipt.templates.location:classpath:receipt-templates.json}") Resource location,
+                             MeterRegistry meterRegistry) throws IOException {
+        List<ReceiptTemplate> configured;
+        try (InputStream in = location.getInputStream()) {
+            configured = objectMapper.readValue(in, new TypeReference<List<ReceiptTemplate>>() {});
+        }
+        Set<String> names = new HashSet<>();
+        for (ReceiptTemplate template : configured) {
+            CompiledTemplate compiled = CompiledTemplate.compile(template);
+            if (!names.add(compiled.getName())) {
+                throw new IllegalArgumentException("Шаблон чека " + compiled.getName() + " описан дважды в " + location);
+            }
+            templates.add(compiled);
+            hits.add(new Counter[]{
+                    templateCounter(meterRegistry, compiled.getName(), "complete"),
+                    templateCounter(meterRegistry, compiled.getName(), "partial"),
+                    templateCounter(meterRegistry, compiled.getName(), "empty")});
+        }
+        unmatched = templateCounter(meterRegistry, "none", "empty");
+        if (templates.isEmpty()) {
+            throw new IllegalArgumentException("В " + location + " нет ни одного шаблона чека");
+        }
+        if (templates.stream().noneMatch(CompiledTemplate::isFallback)) {
+            log.warn("Среди шаблонов чеков нет запасного (без якорей): чеки неизвестных банков не будут разобраны");
+        }
+        log.info("Загружено шаблонов чеков: " + templates.size() + " из " + location);
+    }
+
+    private static Counter templateCounter(MeterRegistry meterRegistry, String template, String result) {
+        return Counter.builder("receipt.template").description("Страницы чеков по выбранному шаблону")
+                .tag("template", template).tag("result", result).register(meterRegistry);
+    }
+
+    public TemplateMatch parse(String pageText) {
+        int selected = -1;
+        Double paymentAmount = null;
+        String checkNumber = null;
+        TextRange paymentAmountRange = null;
+        TextRange checkNumberRange = null;
+        CompiledTemplate paymentAmountTemplate = null;
+        CompiledTemplate checkNumberTemplate = null;
+
+        for (int i = 0; i < templates.size() && (paymentAmount == null || checkNumber == null); i++) {
+            CompiledTemplate template = templates.get(i);
+            if (!template.matches(pageText)) continue;
+            if (selected < 0) selected = i;
+            if (paymentAmount == null) {
+                TextRange range = template.locatePaymentAmount(pageText);
+                Double value = range != null ? template.parseAmount(pageText, range) : null;
+                if (value != null) {
+                    paymentAmount = value;
+                    paymentAmountRange = range;
+                    paymentAmountTemplate = template;
+                }
+            }
+            if (checkNumber == null) {
+                TextRange range = template.locateCheckNumber(pageText);
+                String value = range != null ? template.parseCheckNumber(pageText, range) : null;
+                if (value != null) {
+                    checkNumber = value;
+                    checkNumberRange = range;
+                    checkNumberTemplate = template;
+                }
+            }
+        }
+
+        if (selected < 0) {
+            unmatched.increment();
+            return new TemplateMatch(null, null, null, null, null, null, null);
+        }
+        int found = (paymentAmount != null ? 1 : 0) + (checkNumber != null ? 1 : 0);
+        hits.get(selected)[2 - found].increment();
+        CompiledTemplate template = templates.get(selected);
+        if (log.isDebugEnabled()) {
+            log.debug("Шаблон " + template.getName() + ": сумма " + paymentAmount + ", номер чека " + checkNumber);
+        }
+        return new TemplateMatch(template, paymentAmount, checkNumber, paymentAmountRange, checkNumberRange,
+                paymentAmountTemplate, checkNumberTemplate);
+    }
+}
@@ -0,0 +1,110 @@
+package ru.relex.download;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TelegramFileClientTest {
+    private static final int CHUNK = 64 * 1024;
+    /** Сервер отдаёт тело не дольше этого: успеть до конца значит, что загрузка отменена раньше. */
+    private static final long STREAM_MILLIS = 10_000;
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private TelegramFileClient client;
+    private final AtomicLong served = new AtomicLong();
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/botTOKEN/getFile", exchange -> {
+            byte[] body = "{\"ok\":true,\"result\":{\"file_path\":\"documents/receipt.pdf\"}}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/file/botTOKEN/documents/receipt.pdf", exchange -> {
+            // Тело без длины, медленно и дольше, чем ждёт тест.
+            exchange.sendResponseHeaders(200, 0);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STREAM_MILLIS);
+            try (OutputStream out = exchange.getResponseBody()) {
+                while (System.nanoTime() < deadline) {
+                    out.write(new byte[CHUNK]);
+                    out.flush();
+                    served.addAndGet(CHUNK);
+                    Thread.sleep(20);
+                }
+            } catch (IOException e) {
+                disconnected.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+
+        ReceiptBufferPool bufferPool = new ReceiptBufferPool();
+        ReflectionTestUtils.setField(bufferPool, "bufferKb", 128);
+        ReflectionTestUtils.setField(bufferPool, "poolSize", 2);
+        bufferPool.init();
+        ReceiptSpooler spooler = new ReceiptSpooler(bufferPool);
+        ReflectionTestUtils.setField(spooler, "tempDir", dir.toString());
+        spooler.init();
+
+        client = new TelegramFileClient(new ObjectMapper(), spooler, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(client, "baseUrl", "http://127.0.0.1:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(client, "botToken", "TOKEN");
+        ReflectionTestUtils.setField(client, "connectTimeoutMs", 2000L);
+        ReflectionTestUtils.setField(client, "timeoutMs", 30_000L);
+        ReflectionTestUtils.setField(client, "maxAttempts", 3);
+        ReflectionTestUtils.setField(client, "retryBaseDelayMs", 10L);
+        ReflectionTestUtils.setField(client, "maxConcurrent", 1);
+        client.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void oversizedBodyIsCancelledAsSoonAsTheLimitIsExceeded() throws Exception {
+        long maxSize = 256 * 1024;
+        long start = System.nanoTime();
+
+        assertThatThrownBy(() -> client.download("file-id", null, maxSize))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("больше допустимых");
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(STREAM_MILLIS / 2);
+        assertThat(disconnected.await(STREAM_MILLIS / 2, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(served.get()).isLessThan(STREAM_MILLIS / 20 * CHUNK / 2);
+        // Без повторов, и разрешение на загрузку свободно для следующей.
+        assertThat(client.getRetries()).isZero();
+        Semaphore permits = (Semaphore) ReflectionTestUtils.getField(client, "permits");
+        assertThat(permits.tryAcquire(1, TimeUnit.SECONDS)).isTrue();
+    }
+}
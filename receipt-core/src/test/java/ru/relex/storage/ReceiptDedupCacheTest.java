@@ -0,0 +1,61 @@
+package ru.relex.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.relex.model.ExtractionTier;
+import ru.relex.model.ReceiptExtractionResult;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReceiptDedupCacheTest {
+    @TempDir
+    Path dir;
+
+    private final List<ReceiptDedupCache> caches = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        for (ReceiptDedupCache cache : caches) cache.close();
+    }
+
+    @Test
+    void incompleteResultsAreNotCached() {
+        ReceiptDedupCache cache = cache();
+        cache.put("no-amount", "hash-1", new ReceiptExtractionResult(null, "12345678901", 0, 40, ExtractionTier.OCR));
+        cache.put("no-check", "hash-2", new ReceiptExtractionResult(15800.0, null, 0, 40, ExtractionTier.OCR));
+
+        assertThat(cache.findByUniqueId("no-amount")).isNull();
+        assertThat(cache.findByHash("no-check", "hash-2")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void completeResultSurvivesRestart() throws Exception {
+        ReceiptDedupCache cache = cache();
+        cache.put("file", "hash", new ReceiptExtractionResult(15800.0, "12345678901", 1, 95, ExtractionTier.TEXT_LAYER));
+        cache.persist();
+
+        ReceiptExtractionResult cached = cache().findByUniqueId("file");
+
+        assertThat(cached).isNotNull();
+        assertThat(cached.getPaymentAmount()).isEqualTo(15800.0);
+        assertThat(cached.getCheckNumber()).isEqualTo("12345678901");
+        assertThat(cached.getTier()).isEqualTo(ExtractionTier.CACHE);
+    }
+
+    private ReceiptDedupCache cache() {
+        ReceiptDedupCache cache = new ReceiptDedupCache();
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "ttlHours", 720L);
+        ReflectionTestUtils.setField(cache, "storageDir", dir.toString());
+        cache.init();
+        caches.add(cache);
+        return cache;
+    }
+}
@@ -0,0 +1,52 @@
+package ru.relex.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompiledTemplateTest {
+    @Test
+    void russianLocaleReadsSpaceGroupsAndCommaDecimals() {
+        CompiledTemplate template = template("ru-RU");
+
+        assertThat(amount(template, "Итого 15 800,00 ₸")).isEqualTo(15800.0);
+        assertThat(amount(template, "Итого 15 800,5 ₸")).isEqualTo(15800.5);
+        assertThat(amount(template, "Итого 1 234 567,89")).isEqualTo(1234567.89);
+    }
+
+    @Test
+    void englishLocaleReadsCommaGroupsAndDotDecimals() {
+        CompiledTemplate template = template("en-US");
+
+        assertThat(amount(template, "Итого 15,800.00 USD")).isEqualTo(15800.0);
+        assertThat(amount(template, "Итого 7.5")).isEqualTo(7.5);
+    }
+
+    @Test
+    void germanLocaleReadsDotGroupsAndCommaDecimals() {
+        assertThat(amount(template("de-DE"), "Итого 15.800,25 EUR")).isEqualTo(15800.25);
+    }
+
+    @Test
+    void tooManyDigitsAreRejectedInsteadOfOverflowing() {
+        CompiledTemplate template = template("ru-RU");
+
+        assertThat(amount(template, "Итого 123456789012345,00")).isEqualTo(123456789012345.0);
+        assertThat(amount(template, "Итого 98765432109876543210,00")).isNull();
+    }
+
+    private static Double amount(CompiledTemplate template, String text) {
+        TextRange range = template.locatePaymentAmount(text);
+        return range == null ? null : template.parseAmount(text, range);
+    }
+
+    private static CompiledTemplate template(String locale) {
+        ReceiptTemplate template = new ReceiptTemplate();
+        template.setName(locale);
+        template.setLocale(locale);
+        template.getAmount().setMarkers(List.of("Итого"));
+        return CompiledTemplate.compile(template);
+    }
+}
@@ -0,0 +1,100 @@
+package ru.relex.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import ru.relex.template.TemplateMatch;
+import ru.relex.template.TextRange;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReceiptTextParserTest {
+    private final ReceiptTextParser parser = parser(new ClassPathResource("receipt-templates.json"));
+
+    @Test
+    void suluHomeAmountIsReadFromTheLineAfterTheMarker() {
+        TemplateMatch match = parser.parse(lines(
+                "Kaspi.kz",
+                "Покупка",
+                "ИП Sulu Home(6. 18-20)",
+                "15 800,00 ₸",
+                "Успешно",
+                "Продавец ИП Sulu Home",
+                "№ чека QR12345678901"));
+
+        assertThat(match.getTemplateName()).isEqualTo("kaspi-sulu-home");
+        assertThat(match.getPaymentAmount()).isEqualTo(15800.0);
+        assertThat(match.getCheckNumber()).isEqualTo("12345678901");
+        assertThat(match.getPaymentAmountTemplate().getName()).isEqualTo("kaspi-sulu-home");
+    }
+
+    @Test
+    void noisyOcrFallsBackToSameLineMarkers() {
+        // Строка-маркер правила after распознана с ошибками, номер чека встречается и искажённым.
+        TemplateMatch match = parser.parse(lines(
+                "Кasрi.kz",
+                "ИП Su1u Hоmе (б. 18—20)",
+                "Продавец: ИП Sulu Home",
+                "Цена: 7 900,00 ₸",
+                "Итого: 15 800,00 ₸",
+                "N° чекa QR1234S6789O1",
+                "№ чека QR12345678901"));
+
+        assertThat(match.getTemplateName()).isEqualTo("kaspi-sulu-home");
+        assertThat(match.getPaymentAmount()).isEqualTo(15800.0);
+        assertThat(match.getCheckNumber()).isEqualTo("12345678901");
+    }
+
+    @Test
+    void eachFieldKeepsTheTemplateThatFoundIt() {
+        ReceiptTextParser parser = parser(json("["
+                + "{\"name\":\"us-shop\",\"anchors\":[\"US Shop\"],\"locale\":\"en-US\","
+                + "\"checkNumber\":{\"markers\":[\"Receipt #\"]}},"
+                + "{\"name\":\"default\",\"locale\":\"ru-RU\",\"amount\":{\"markers\":[\"Итого\"]}}"
+                + "]"));
+
+        TemplateMatch match = parser.parse(lines("US Shop", "Receipt # 42", "Итого 1 234,50"));
+
+        assertThat(match.getTemplateName()).isEqualTo("us-shop");
+        assertThat(match.getCheckNumberTemplate().getName()).isEqualTo("us-shop");
+        assertThat(match.getPaymentAmountTemplate().getName()).isEqualTo("default");
+        assertThat(match.getPaymentAmount()).isEqualTo(1234.5);
+        // Вырезка перечитывается по локали шаблона, нашедшего сумму, а не выбранного для страницы.
+        String crop = "1 234,50";
+        assertThat(match.getPaymentAmountTemplate().parseAmount(crop, new TextRange(0, crop.length()))).isEqualTo(1234.5);
+        assertThat(match.getTemplate().parseAmount(crop, new TextRange(0, crop.length()))).isNotEqualTo(1234.5);
+    }
+
+    @Test
+    void pageWithoutMatchingTemplateHasNoFields() {
+        ReceiptTextParser parser = parser(json("[{\"name\":\"kaspi\",\"anchors\":[\"Kaspi\"]}]"));
+
+        TemplateMatch match = parser.parse("Итого 100,00");
+
+        assertThat(match.getTemplateName()).isNull();
+        assertThat(match.getPaymentAmount()).isNull();
+        assertThat(match.getPaymentAmountTemplate()).isNull();
+    }
+
+    private static ReceiptTextParser parser(Resource templates) {
+        try {
+            return new ReceiptTextParser(new ObjectMapper(), templates, new SimpleMeterRegistry());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Resource json(String json) {
+        return new ByteArrayResource(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String lines(String... lines) {
+        return String.join("\n", lines);
+    }
+}